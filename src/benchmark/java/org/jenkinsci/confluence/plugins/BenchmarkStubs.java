@@ -0,0 +1,102 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.util.http.HttpRequest;
+import com.atlassian.confluence.util.http.HttpResponse;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+import com.atlassian.renderer.RenderContext;
+import com.atlassian.renderer.v2.SubRenderer;
+
+/**
+ * Stubs of the Confluence services the benchmarks drive the macro with.
+ */
+class BenchmarkStubs {
+
+	private BenchmarkStubs() {
+	}
+
+	/**
+	 * @return the contents of the given test resource
+	 */
+	static byte[] resource(String name) throws IOException {
+		InputStream stream = BenchmarkStubs.class.getResourceAsStream("/"
+				+ name);
+		if (stream == null) {
+			throw new IOException("no such resource: " + name);
+		}
+		try {
+			return IOUtils.toByteArray(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * Gets a retrieval service serving the given documents, by the last
+	 * segment of their url (<code>update-center.json</code>,
+	 * <code>&lt;pluginId&gt;.stats.json</code>). Every other url is not found.
+	 */
+	static HttpRetrievalService httpRetrievalService(
+			final Map<String, byte[]> documents) throws IOException {
+		HttpRetrievalService httpRetrievalService = Mockito
+				.mock(HttpRetrievalService.class);
+		Mockito.when(
+				httpRetrievalService.getDefaultRequestFor(Mockito.anyString()))
+				.thenAnswer(new Answer<HttpRequest>() {
+					public HttpRequest answer(InvocationOnMock invocation)
+							throws Throwable {
+						HttpRequest request = Mockito.mock(HttpRequest.class);
+						Mockito.when(request.getUrl()).thenReturn(
+								(String) invocation.getArguments()[0]);
+						return request;
+					}
+				});
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenAnswer(new Answer<HttpResponse>() {
+					public HttpResponse answer(InvocationOnMock invocation)
+							throws Throwable {
+						String url = ((HttpRequest) invocation.getArguments()[0])
+								.getUrl();
+						return response(documents.get(url.substring(url
+								.lastIndexOf('/') + 1)));
+					}
+				});
+		return httpRetrievalService;
+	}
+
+	private static HttpResponse response(byte[] document) throws IOException {
+		HttpResponse response = Mockito.mock(HttpResponse.class);
+		Mockito.when(response.getStatusCode()).thenReturn(
+				document == null ? 404 : 200);
+		Mockito.when(response.getResponse()).thenReturn(
+				new ByteArrayInputStream(document == null ? new byte[0]
+						: document));
+		return response;
+	}
+
+	/**
+	 * @return a sub renderer returning the wiki markup as-is
+	 */
+	static SubRenderer subRenderer() {
+		SubRenderer subRenderer = Mockito.mock(SubRenderer.class);
+		Mockito.when(
+				subRenderer.render(Mockito.anyString(),
+						Mockito.any(RenderContext.class))).thenAnswer(
+				new Answer<String>() {
+					public String answer(InvocationOnMock invocation)
+							throws Throwable {
+						return (String) invocation.getArguments()[0];
+					}
+				});
+		return subRenderer;
+	}
+}
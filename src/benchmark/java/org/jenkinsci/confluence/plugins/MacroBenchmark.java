@@ -0,0 +1,104 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.atlassian.renderer.RenderContext;
+
+/**
+ * Rendering the plugin information box with the update center and stats
+ * already cached, as done on every page view.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MacroBenchmark {
+
+	@Param({ "subversion", "cucumber-reports" })
+	public String pluginId;
+
+	/**
+	 * The macro options: <code>wiki</code> (the defaults),
+	 * <code>html</code>, <code>svg</code> or <code>transitive</code>.
+	 */
+	@Param({ "wiki", "html", "svg", "transitive" })
+	public String options;
+
+	private final Map<String, String> parameters = new HashMap<String, String>();
+
+	/**
+	 * Renders once, then serves the fragment from its cache.
+	 */
+	private final JenkinsPluginInfoMacro cachedMacro = new JenkinsPluginInfoMacro();
+
+	/**
+	 * Renders on every execution.
+	 */
+	private final JenkinsPluginInfoMacro renderingMacro = new JenkinsPluginInfoMacro();
+
+	@Setup
+	public void setUp() throws Exception {
+		parameters.put("pluginId", pluginId);
+		if ("html".equals(options)) {
+			parameters.put("output", "html");
+		} else if ("svg".equals(options)) {
+			parameters.put("chart", "svg");
+		} else if ("transitive".equals(options)) {
+			parameters.put("transitive", "true");
+			parameters.put("usedBy", "true");
+		}
+
+		Map<String, byte[]> documents = new HashMap<String, byte[]>();
+		documents.put("update-center.json",
+				BenchmarkStubs.resource("update-center.json"));
+		documents.put(pluginId + ".stats.json",
+				BenchmarkStubs.resource(pluginId + ".stats.json"));
+		JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+
+		setUp(cachedMacro, documents, jenkinsRetriever,
+				new RenderedFragmentCache(RenderedFragmentCache.DEFAULT_MAX_SIZE));
+		setUp(renderingMacro, documents, jenkinsRetriever,
+				new RenderedFragmentCache(0));
+	}
+
+	private void setUp(JenkinsPluginInfoMacro macro,
+			Map<String, byte[]> documents, JenkinsRetriever jenkinsRetriever,
+			RenderedFragmentCache fragmentCache) throws Exception {
+		macro.setHttpRetrievalService(BenchmarkStubs
+				.httpRetrievalService(documents));
+		macro.setSubRenderer(BenchmarkStubs.subRenderer());
+		macro.setJenkinsRetriever(jenkinsRetriever);
+		macro.setFragmentCache(fragmentCache);
+		// loads the update center and stats into the caches
+		macro.execute(parameters, null, new RenderContext());
+	}
+
+	/**
+	 * Each execution renders a new page, with its own render context.
+	 */
+	@Benchmark
+	public String executeCached() throws Exception {
+		return cachedMacro.execute(parameters, null, new RenderContext());
+	}
+
+	@Benchmark
+	public String executeRendered() throws Exception {
+		return renderingMacro.execute(parameters, null, new RenderContext());
+	}
+}
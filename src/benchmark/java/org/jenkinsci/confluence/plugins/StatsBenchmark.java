@@ -0,0 +1,71 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing the installation stats and rendering the chart, the work done
+ * whenever the stats of a plugin are shown for the first time.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StatsBenchmark {
+
+	@Param({ "subversion", "analysis-collector", "cucumber-reports" })
+	public String pluginId;
+
+	private String rawStats;
+
+	private StatsInfoParser stats;
+
+	@Setup
+	public void setUp() throws Exception {
+		rawStats = new String(BenchmarkStubs.resource(pluginId
+				+ ".stats.json"), "UTF-8").trim();
+		stats = new StatsInfoParser(pluginId, rawStats);
+	}
+
+	@Benchmark
+	public StatsInfoParser parse() throws Exception {
+		return new StatsInfoParser(pluginId, rawStats);
+	}
+
+	/**
+	 * Parse and render the chart url, the rendering is not memoized yet.
+	 */
+	@Benchmark
+	public String parseAndRenderChartUrl() throws Exception {
+		return new StatsInfoParser(pluginId, rawStats).renderChartUrl(true);
+	}
+
+	/**
+	 * Parse and render the inline chart, the rendering is not memoized yet.
+	 */
+	@Benchmark
+	public String parseAndRenderChartSvg() throws Exception {
+		return new StatsInfoParser(pluginId, rawStats).renderChartSvg();
+	}
+
+	/**
+	 * The memoized chart url, as rendered for cached stats.
+	 */
+	@Benchmark
+	public String renderChartUrl() {
+		return stats.renderChartUrl(true);
+	}
+}
@@ -0,0 +1,115 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Fetching, parsing and indexing the update center: the work done whenever the
+ * cached update center expired.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.AverageTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateCenterBenchmark {
+
+	/**
+	 * The fixture from the tests, or a generated document with the given
+	 * number of plugins.
+	 */
+	@Param({ "fixture", "2000", "5000" })
+	public String updateCenter;
+
+	private byte[] document;
+
+	private HttpRetrievalService httpRetrievalService;
+
+	private HttpRetrievalService gzippingHttpRetrievalService;
+
+	private final JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+
+	private Map<String, PluginInfo> plugins;
+
+	@Setup
+	public void setUp() throws Exception {
+		if ("fixture".equals(updateCenter)) {
+			document = BenchmarkStubs.resource("update-center.json");
+		} else {
+			document = UpdateCenterGenerator.generate(
+					Integer.parseInt(updateCenter), 42).getBytes("UTF-8");
+		}
+		httpRetrievalService = BenchmarkStubs.httpRetrievalService(Collections
+				.singletonMap("update-center.json", document));
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(gzipped);
+		out.write(document);
+		out.close();
+		gzippingHttpRetrievalService = BenchmarkStubs
+				.httpRetrievalService(Collections.singletonMap(
+						"update-center.json", gzipped.toByteArray()));
+		plugins = UpdateCenterParser.parse(new ByteArrayInputStream(document));
+	}
+
+	@Benchmark
+	public Map<String, PluginInfo> parse() throws Exception {
+		return UpdateCenterParser.parse(new ByteArrayInputStream(document));
+	}
+
+	/**
+	 * Fetch, parse and index, as done when the cached update center expired.
+	 */
+	@Benchmark
+	public UpdateCenterSnapshot retrieve() throws Exception {
+		return jenkinsRetriever.retrieveUpdateCenter(httpRetrievalService, null);
+	}
+
+	/**
+	 * Like {@link #retrieve()}, with a gzipped response.
+	 */
+	@Benchmark
+	public UpdateCenterSnapshot retrieveGzipped() throws Exception {
+		return jenkinsRetriever.retrieveUpdateCenter(
+				gzippingHttpRetrievalService, null);
+	}
+
+	@Benchmark
+	public List<DependencyGraph.Dependent> indexDependents() {
+		return new DependencyGraph(plugins).getDependents("credentials");
+	}
+
+	/**
+	 * The transitive dependencies of every plugin, starting from an empty
+	 * memo.
+	 */
+	@Benchmark
+	public void transitiveDependencies(Blackhole blackhole) {
+		DependencyGraph graph = new DependencyGraph(plugins);
+		for (String pluginId : plugins.keySet()) {
+			List<PluginInfo.Dependency> dependencies = graph
+					.getTransitiveDependencies(pluginId, true);
+			blackhole.consume(dependencies);
+		}
+	}
+}
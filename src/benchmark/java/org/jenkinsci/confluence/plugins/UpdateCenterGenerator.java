@@ -0,0 +1,133 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.Random;
+
+/**
+ * Generates update center documents shaped like the real one (JSONP wrapper,
+ * core, plugins with dependencies, developers and the properties the macro
+ * skips, signature), but with any number of plugins.
+ * <p>
+ * The same number of plugins and seed always give the same document.
+ */
+public class UpdateCenterGenerator {
+
+	private static final String[] LABELS = { "scm", "report", "buildwrapper",
+			"misc", "trigger", "upload", "notifier", "cluster", "builder",
+			"post-build" };
+
+	private final Random random;
+
+	private final StringBuilder json = new StringBuilder();
+
+	private UpdateCenterGenerator(long seed) {
+		random = new Random(seed);
+	}
+
+	/**
+	 * @param plugins
+	 *            the number of plugins
+	 * @param seed
+	 *            the seed of the random dependencies, versions, ...
+	 * @return the update center, wrapped as JSONP
+	 */
+	public static String generate(int plugins, long seed) {
+		return new UpdateCenterGenerator(seed).document(plugins);
+	}
+
+	/**
+	 * @return the id of the i-th generated plugin
+	 */
+	public static String pluginId(int i) {
+		return "generated-plugin-" + i;
+	}
+
+	private String document(int plugins) {
+		json.append("updateCenter.post(\n");
+		json.append("{\"connectionCheckUrl\":\"http://www.google.com/\",");
+		json.append("\"core\":{\"buildDate\":\"Aug 05, 2013\",\"name\":\"core\",\"sha1\":\"LvegevUs2wyfHFN5LpezLD0heTE=\",");
+		json.append("\"url\":\"http://updates.jenkins-ci.org/download/war/1.526/jenkins.war\",\"version\":\"1.526\"},");
+		json.append("\"id\":\"default\",\"plugins\":{");
+		for (int i = 0; i < plugins; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			plugin(i);
+		}
+		json.append("},\"signature\":{\"certificates\":[\"");
+		for (int i = 0; i < 40; i++) {
+			json.append("MIIEVTCCAz2gAwIBAgIJAO");
+		}
+		json.append("\"],\"digest\":\"3m6dMrO6AmURW6pJxjZBmNTmmqk=\",\"signature\":\"Ov6wFvO4fCh0Hv5k\"},");
+		json.append("\"updateCenterVersion\":\"1\"}\n);");
+		return json.toString();
+	}
+
+	private void plugin(int i) {
+		String id = pluginId(i);
+		String version = version();
+		json.append('"').append(id).append("\":{");
+		json.append("\"buildDate\":\"Mar 0").append(1 + random.nextInt(9))
+				.append(", 2013\",");
+		json.append("\"dependencies\":[");
+		// depend on earlier plugins only, like most real plugins depend on
+		// older, more basic ones
+		int dependencies = i == 0 ? 0 : random.nextInt(Math.min(i, 7));
+		for (int d = 0; d < dependencies; d++) {
+			if (d > 0) {
+				json.append(',');
+			}
+			json.append("{\"name\":\"").append(pluginId(random.nextInt(i)))
+					.append("\",\"optional\":\"")
+					.append(random.nextInt(4) == 0).append("\",\"version\":\"")
+					.append(version()).append("\"}");
+		}
+		json.append("],\"developers\":[");
+		int developers = 1 + random.nextInt(3);
+		for (int d = 0; d < developers; d++) {
+			if (d > 0) {
+				json.append(',');
+			}
+			int developer = random.nextInt(500);
+			json.append("{\"developerId\":\"dev").append(developer)
+					.append("\",\"email\":\"dev").append(developer)
+					.append("@example.org\",\"name\":\"Developer ")
+					.append(developer).append("\"}");
+		}
+		json.append("],\"excerpt\":\"This plugin ").append(id);
+		json.append(" integrates Jenkins with a tool, adds a build step and publishes a report of the results on the build page.\",");
+		json.append("\"gav\":\"org.jenkins-ci.plugins:").append(id).append(':')
+				.append(version).append("\",");
+		json.append("\"labels\":[\"").append(LABELS[random.nextInt(LABELS.length)])
+				.append("\",\"").append(LABELS[random.nextInt(LABELS.length)])
+				.append("\"],");
+		json.append("\"name\":\"").append(id).append("\",");
+		json.append("\"previousTimestamp\":\"2012-11-0").append(1 + random.nextInt(9))
+				.append("T10:12:3").append(random.nextInt(10)).append(".00Z\",");
+		json.append("\"previousVersion\":\"").append(version()).append("\",");
+		json.append("\"releaseTimestamp\":\"2013-03-0").append(1 + random.nextInt(9))
+				.append("T16:49:2").append(random.nextInt(10)).append(".00Z\",");
+		json.append("\"requiredCore\":\"1.").append(400 + random.nextInt(126))
+				.append("\",");
+		json.append("\"scm\":\"").append(random.nextBoolean() ? "github.com" : "svn.jenkins-ci.org")
+				.append("\",");
+		json.append("\"sha1\":\"il8z91iDnqVMu78Ghj8q2swCpdk=\",");
+		json.append("\"title\":\"Jenkins ").append(id).append("\",");
+		json.append("\"url\":\"http://updates.jenkins-ci.org/download/plugins/")
+				.append(id).append('/').append(version).append('/').append(id)
+				.append(".hpi\",");
+		json.append("\"version\":\"").append(version).append("\",");
+		json.append("\"wiki\":\"https://wiki.jenkins-ci.org/display/JENKINS/")
+				.append(id).append("\"}");
+	}
+
+	private String version() {
+		String version = random.nextInt(3) + "." + random.nextInt(30);
+		if (random.nextInt(5) == 0) {
+			version += "." + random.nextInt(10);
+		}
+		if (random.nextInt(10) == 0) {
+			version += "-beta-" + (1 + random.nextInt(3));
+		}
+		return version;
+	}
+}
@@ -0,0 +1,337 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
+
+import com.atlassian.confluence.pages.Page;
+import com.atlassian.confluence.renderer.PageContext;
+import com.atlassian.renderer.RenderContext;
+import com.atlassian.renderer.v2.SubRenderer;
+
+/**
+ * Renders pages of plugin information macros from many threads against a
+ * stubbed backend ({@link LoadTestBackend}), then reports the throughput, the
+ * render latency percentiles, the backend calls, the cache hit rates and the
+ * heap usage.
+ * <p>
+ * Run it with <code>mvn -P load-test test-compile exec:exec</code>, configured
+ * with the <code>loadtest.*</code> properties of the profile. It exits with
+ * status 1 if the p99 latency or the throughput miss the configured limits,
+ * which fails the build.
+ */
+public class LoadTest {
+
+	/**
+	 * The cache counters reported, by name.
+	 */
+	private static final String[] COUNTERS = { "fragmentCache.hits",
+			"fragmentCache.misses", "statsCache.hits", "statsCache.misses",
+			"updateCenterCache.hits", "updateCenterCache.staleHits",
+			"updateCenterCache.misses" };
+
+	private final int threads = Integer.getInteger("loadtest.threads", 64);
+
+	private final long warmup = Long.getLong("loadtest.warmup", 5);
+
+	private final long duration = Long.getLong("loadtest.duration", 30);
+
+	private final int pageCount = Integer.getInteger("loadtest.pages", 200);
+
+	private final int macrosPerPage = Integer.getInteger(
+			"loadtest.macrosPerPage", 5);
+
+	private final long latency = Long.getLong("loadtest.latency", 50);
+
+	private final double failureRate = Double.parseDouble(System.getProperty(
+			"loadtest.failureRate", "0"));
+
+	private final double maxP99 = Double.parseDouble(System.getProperty(
+			"loadtest.maxP99", "0"));
+
+	private final double minThroughput = Double.parseDouble(System
+			.getProperty("loadtest.minThroughput", "0"));
+
+	private final Timer pageRenders = new Timer();
+
+	private final AtomicLong macroRenders = new AtomicLong();
+
+	private final AtomicLong warnings = new AtomicLong();
+
+	private final AtomicLong errors = new AtomicLong();
+
+	private volatile boolean measuring;
+
+	private volatile boolean stopped;
+
+	public static void main(String[] args) throws Exception {
+		boolean passed = new LoadTest().run();
+		// the macro's background executors don't keep the vm alive
+		System.exit(passed ? 0 : 1);
+	}
+
+	/**
+	 * @return whether the limits were met
+	 */
+	boolean run() throws Exception {
+		LoadTestBackend backend = new LoadTestBackend(
+				resource("update-center.json"),
+				resource("subversion.stats.json"), latency, failureRate);
+		JenkinsPluginInfoMacro macro = new JenkinsPluginInfoMacro();
+		macro.setHttpRetrievalService(backend.httpRetrievalService());
+		macro.setSubRenderer(subRenderer());
+		macro.setJenkinsRetriever(new JenkinsRetriever());
+		macro.setFragmentCache(new RenderedFragmentCache(Integer.getInteger(
+				RenderedFragmentCache.MAX_SIZE_PROPERTY,
+				RenderedFragmentCache.DEFAULT_MAX_SIZE)));
+		List<Page> pages = pages(new ArrayList<String>(UpdateCenterParser
+				.parse(LoadTest.class.getResourceAsStream("/update-center.json"))
+				.keySet()));
+
+		System.out.println("Load test: " + threads + " threads, " + pageCount
+				+ " pages of " + macrosPerPage + " macros, backend latency "
+				+ latency + " ms, failure rate " + failureRate + ", warmup "
+				+ warmup + " s, measured " + duration + " s");
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			workers.execute(worker(macro, pages, i, done));
+		}
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+		System.gc();
+		long heapBefore = usedHeap();
+		resetPeakHeap();
+		Map<String, Long> countersBefore = counters();
+		long updateCenterCallsBefore = backend.getUpdateCenterCalls();
+		long statsCallsBefore = backend.getStatsCalls();
+		long failuresBefore = backend.getFailures();
+		long gcCountBefore = gcCount();
+		long gcTimeBefore = gcTime();
+		long start = System.nanoTime();
+		measuring = true;
+
+		Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+		measuring = false;
+		double seconds = (System.nanoTime() - start) / 1e9;
+		long peakHeap = peakHeap();
+		long gcCount = gcCount() - gcCountBefore;
+		long gcTime = gcTime() - gcTimeBefore;
+		stopped = true;
+		done.await();
+		workers.shutdown();
+		System.gc();
+		long heapAfter = usedHeap();
+
+		double throughput = pageRenders.getCount() / seconds;
+		System.out.println();
+		System.out.printf("Pages rendered:      %d (%d macros)%n",
+				pageRenders.getCount(), macroRenders.get());
+		System.out.printf("Throughput:          %.1f pages/s%n", throughput);
+		System.out.printf(
+				"Page latency:        p50 %.2f ms, p99 %.2f ms, max %.2f ms, mean %.2f ms%n",
+				pageRenders.getMedianMillis(),
+				pageRenders.get99thPercentileMillis(),
+				pageRenders.getMaxMillis(), pageRenders.getMeanMillis());
+		System.out.printf("Macro warnings:      %d, errors: %d%n",
+				warnings.get(), errors.get());
+		System.out.printf(
+				"Backend calls:       update center %d, stats %d, failed %d%n",
+				backend.getUpdateCenterCalls() - updateCenterCallsBefore,
+				backend.getStatsCalls() - statsCallsBefore,
+				backend.getFailures() - failuresBefore);
+		System.out.println("Cache counters:");
+		Map<String, Long> countersAfter = counters();
+		for (String name : COUNTERS) {
+			System.out.printf("  %-28s %d%n", name + ":",
+					countersAfter.get(name) - countersBefore.get(name));
+		}
+		System.out.printf(
+				"Heap:                %d MB before, %d MB peak, %d MB after (used after gc)%n",
+				heapBefore >> 20, peakHeap >> 20, heapAfter >> 20);
+		System.out.printf("GC:                  %d collections, %d ms%n",
+				gcCount, gcTime);
+
+		boolean passed = true;
+		if (maxP99 > 0 && pageRenders.get99thPercentileMillis() > maxP99) {
+			System.out.println("FAILED: p99 latency above " + maxP99 + " ms");
+			passed = false;
+		}
+		if (minThroughput > 0 && throughput < minThroughput) {
+			System.out.println("FAILED: throughput below " + minThroughput
+					+ " pages/s");
+			passed = false;
+		}
+		return passed;
+	}
+
+	/**
+	 * Gets pages with random plugins of the update center, the same ones on
+	 * every run.
+	 */
+	private List<Page> pages(List<String> pluginIds) {
+		Collections.sort(pluginIds);
+		Random random = new Random(42);
+		List<Page> pages = new ArrayList<Page>(pageCount);
+		for (int i = 0; i < pageCount; i++) {
+			StringBuilder markup = new StringBuilder();
+			for (int j = 0; j < macrosPerPage; j++) {
+				markup.append("{jenkins-plugin-info:pluginId=")
+						.append(pluginIds.get(random.nextInt(pluginIds.size())))
+						.append("}\n");
+			}
+			Page page = new Page();
+			page.setContent(markup.toString());
+			pages.add(page);
+		}
+		return pages;
+	}
+
+	private Runnable worker(final JenkinsPluginInfoMacro macro,
+			final List<Page> pages, final int seed, final CountDownLatch done) {
+		return new Runnable() {
+			public void run() {
+				Random random = new Random(seed);
+				try {
+					while (!stopped) {
+						Page page = pages.get(random.nextInt(pages.size()));
+						long start = pageRenders.start();
+						render(macro, page);
+						if (measuring) {
+							pageRenders.stop(start);
+						}
+					}
+				} finally {
+					done.countDown();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Renders all macros of the given page, one after the other, like
+	 * Confluence does.
+	 */
+	private void render(JenkinsPluginInfoMacro macro, Page page) {
+		RenderContext renderContext = new PageContext(page);
+		for (String pluginId : PageRenderMemo.pluginIdsIn(page.getContent())) {
+			Map<String, String> parameters = new HashMap<String, String>();
+			parameters.put("pluginId", pluginId);
+			try {
+				String output = macro.execute(parameters, null, renderContext);
+				if (measuring) {
+					macroRenders.incrementAndGet();
+					if (output.contains("{warning")) {
+						warnings.incrementAndGet();
+					}
+				}
+			} catch (Exception e) {
+				if (measuring) {
+					errors.incrementAndGet();
+				}
+			}
+		}
+	}
+
+	private static Map<String, Long> counters() {
+		Map<String, Long> counters = new LinkedHashMap<String, Long>();
+		for (String name : COUNTERS) {
+			counters.put(name, Metrics.getInstance().counter(name).getCount());
+		}
+		return counters;
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage()
+				.getUsed();
+	}
+
+	private static void resetPeakHeap() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				pool.resetPeakUsage();
+			}
+		}
+	}
+
+	/**
+	 * @return the sum of the peaks of the heap pools, an upper bound of the
+	 *         peak heap usage
+	 */
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	private static byte[] resource(String name) throws IOException {
+		InputStream stream = LoadTest.class.getResourceAsStream("/" + name);
+		if (stream == null) {
+			throw new IOException("no such resource: " + name);
+		}
+		try {
+			return IOUtils.toByteArray(stream);
+		} finally {
+			stream.close();
+		}
+	}
+
+	/**
+	 * @return a sub renderer returning the wiki markup as-is
+	 */
+	private static SubRenderer subRenderer() {
+		// a proxy rather than a mock, which would remember every render
+		return (SubRenderer) Proxy.newProxyInstance(
+				SubRenderer.class.getClassLoader(),
+				new Class<?>[] { SubRenderer.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						return args[0];
+					}
+				});
+	}
+}
@@ -0,0 +1,140 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.mockito.Mockito;
+
+import com.atlassian.confluence.util.http.HttpRequest;
+import com.atlassian.confluence.util.http.HttpResponse;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * A stubbed {@link HttpRetrievalService} serving the update center and stats
+ * fixtures after a configurable latency, failing a configurable share of the
+ * requests, and counting them.
+ * <p>
+ * The service and its responses are dynamic proxies rather than mocks: a mock
+ * remembers every invocation, which would show up in the heap usage the load
+ * test reports.
+ */
+class LoadTestBackend {
+
+	private final byte[] updateCenter;
+
+	private final byte[] stats;
+
+	private final long latency;
+
+	private final double failureRate;
+
+	private final Random random = new Random();
+
+	private final AtomicLong updateCenterCalls = new AtomicLong();
+
+	private final AtomicLong statsCalls = new AtomicLong();
+
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * @param updateCenter
+	 *            the update center document
+	 * @param stats
+	 *            the stats document served for every plugin
+	 * @param latency
+	 *            the time (in millis) every request takes
+	 * @param failureRate
+	 *            the share of requests failing with an {@link IOException},
+	 *            between 0 and 1
+	 */
+	LoadTestBackend(byte[] updateCenter, byte[] stats, long latency,
+			double failureRate) {
+		this.updateCenter = updateCenter;
+		this.stats = stats;
+		this.latency = latency;
+		this.failureRate = failureRate;
+	}
+
+	HttpRetrievalService httpRetrievalService() {
+		return (HttpRetrievalService) Proxy.newProxyInstance(
+				HttpRetrievalService.class.getClassLoader(),
+				new Class<?>[] { HttpRetrievalService.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) throws Throwable {
+						if (method.getName().equals("getDefaultRequestFor")) {
+							HttpRequest request = Mockito
+									.mock(HttpRequest.class);
+							Mockito.when(request.getUrl()).thenReturn(
+									(String) args[0]);
+							return request;
+						}
+						if (method.getName().equals("get")) {
+							return get(args[0] instanceof HttpRequest ? ((HttpRequest) args[0])
+									.getUrl() : (String) args[0]);
+						}
+						throw new UnsupportedOperationException(method
+								.getName());
+					}
+				});
+	}
+
+	private HttpResponse get(String url) throws IOException,
+			InterruptedException {
+		boolean isUpdateCenter = url.endsWith("update-center.json");
+		(isUpdateCenter ? updateCenterCalls : statsCalls).incrementAndGet();
+		if (latency > 0) {
+			Thread.sleep(latency);
+		}
+		boolean fail;
+		synchronized (random) {
+			fail = random.nextDouble() < failureRate;
+		}
+		if (fail) {
+			failures.incrementAndGet();
+			throw new IOException("injected failure: " + url);
+		}
+		return response(isUpdateCenter ? updateCenter : stats);
+	}
+
+	private static HttpResponse response(final byte[] document) {
+		return (HttpResponse) Proxy.newProxyInstance(
+				HttpResponse.class.getClassLoader(),
+				new Class<?>[] { HttpResponse.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						String name = method.getName();
+						if (name.equals("getResponse")) {
+							return new ByteArrayInputStream(document);
+						}
+						if (name.equals("getStatusCode")) {
+							return 200;
+						}
+						if (name.equals("getHeaders")) {
+							return new String[0];
+						}
+						if (method.getReturnType() == boolean.class) {
+							return false;
+						}
+						return null;
+					}
+				});
+	}
+
+	long getUpdateCenterCalls() {
+		return updateCenterCalls.get();
+	}
+
+	long getStatsCalls() {
+		return statsCalls.get();
+	}
+
+	long getFailures() {
+		return failures.get();
+	}
+}
@@ -0,0 +1,117 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the (daemon) threads the plugin uses to do work outside of the render thread.
+ */
+final class BackgroundExecutors {
+
+    /**
+     * System property to override the default number of threads fetching data for renders.
+     */
+    static final String FETCH_THREADS_PROPERTY = BackgroundExecutors.class.getName() + ".fetchThreads";
+
+    /**
+     * System property to override the default number of fetches that may wait for a thread.
+     */
+    static final String FETCH_QUEUE_SIZE_PROPERTY = BackgroundExecutors.class.getName() + ".fetchQueueSize";
+
+    static final int DEFAULT_FETCH_THREADS = 4;
+
+    static final int DEFAULT_FETCH_QUEUE_SIZE = 64;
+
+    private static ExecutorService refreshExecutor;
+
+    private static ExecutorService fetchExecutor;
+
+    private BackgroundExecutors() {
+    }
+
+    /**
+     * @return the executor refreshing cached data in the background, not to be kept as it is replaced after a
+     *         {@link #shutdown()}
+     */
+    static synchronized ExecutorService refresh() {
+        if (refreshExecutor == null) {
+            refreshExecutor = Executors.newSingleThreadExecutor(new NamedThreadFactory("refresh"));
+        }
+        return refreshExecutor;
+    }
+
+    /**
+     * Gets the executor fetching data renders are waiting for. Both its threads and its queue are bounded: when they
+     * are exhausted the fetch is rejected with a {@link java.util.concurrent.RejectedExecutionException}, and the render
+     * goes on without the data rather than fetching it on its own thread, past its deadline.
+     *
+     * @return the executor fetching data for renders, not to be kept as it is replaced after a {@link #shutdown()}
+     */
+    static synchronized ExecutorService fetch() {
+        if (fetchExecutor == null) {
+            int threads = Integer.getInteger(FETCH_THREADS_PROPERTY, DEFAULT_FETCH_THREADS);
+            fetchExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(Integer.getInteger(FETCH_QUEUE_SIZE_PROPERTY,
+                            DEFAULT_FETCH_QUEUE_SIZE)), new NamedThreadFactory("fetch"),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        return fetchExecutor;
+    }
+
+    /**
+     * Shuts the executors down so their threads don't keep the plugin classes loaded once it is disabled. Running work
+     * is interrupted and queued work cancelled; the executors are created anew on next use.
+     */
+    static synchronized void shutdown() {
+        shutdown(refreshExecutor);
+        refreshExecutor = null;
+        shutdown(fetchExecutor);
+        fetchExecutor = null;
+    }
+
+    private static void shutdown(ExecutorService executor) {
+        if (executor == null) {
+            return;
+        }
+        for (Runnable queued : executor.shutdownNow()) {
+            // whoever waits for it must not wait forever
+            if (queued instanceof Future) {
+                ((Future<?>) queued).cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Creates a new executor for scheduled work, it must be shut down when no longer needed.
+     *
+     * @param name
+     *            the name of the work, used in the thread name
+     * @return the new executor
+     */
+    static ScheduledExecutorService newScheduler(String name) {
+        return Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+        private final String name;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "jenkins-plugin-info-" + name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.atlassian.confluence.setup.BootstrapManager;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+import com.atlassian.plugin.StateAware;
+
+/**
+ * Loads the update center and the stats of the most viewed plugins as soon as the plugin is enabled, and refreshes
+ * them on a fixed schedule before they expire, so page views never wait for a load.
+ * <p>
+ * Which plugins are viewed the most is only known after some views, the stats of plugins listed in the
+ * {@link #PLUGIN_IDS_PROPERTY} system property are loaded right from the start.
+ * <p>
+ * The last loaded update center is persisted in the Confluence home (or the {@link #SNAPSHOT_DIRECTORY_PROPERTY}
+ * directory) and restored when the plugin is enabled, so plugin pages render right after a restart while a fresh update
+ * center is fetched in the background.
+ */
+public class CacheWarmer implements StateAware {
+
+    /**
+     * System property to override the default time (in millis) between prefetches.
+     */
+    public static final String INTERVAL_PROPERTY = CacheWarmer.class.getName() + ".interval";
+
+    /**
+     * System property to override the default number of most viewed plugins whose stats are prefetched.
+     */
+    public static final String STATS_COUNT_PROPERTY = CacheWarmer.class.getName() + ".statsCount";
+
+    /**
+     * System property listing (comma separated) plugin ids whose stats are always prefetched.
+     */
+    public static final String PLUGIN_IDS_PROPERTY = CacheWarmer.class.getName() + ".pluginIds";
+
+    /**
+     * System property to override the directory the update center is persisted in.
+     */
+    public static final String SNAPSHOT_DIRECTORY_PROPERTY = CacheWarmer.class.getName() + ".snapshotDirectory";
+
+    /**
+     * The directory, in the Confluence home, the update center is persisted in by default.
+     */
+    public static final String DEFAULT_SNAPSHOT_DIRECTORY = "jenkins-plugin-info";
+
+    public static final String SNAPSHOT_FILE = "update-center.bin";
+
+    public static final long DEFAULT_INTERVAL = 10 * 60 * 1000L;
+
+    public static final int DEFAULT_STATS_COUNT = 50;
+
+    private final JenkinsRetriever jenkinsRetriever;
+
+    private HttpRetrievalService httpRetrievalService;
+
+    private BootstrapManager bootstrapManager;
+
+    private long interval = Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL);
+
+    private int statsCount = Integer.getInteger(STATS_COUNT_PROPERTY, DEFAULT_STATS_COUNT);
+
+    private String[] pluginIds = StringUtils.split(System.getProperty(PLUGIN_IDS_PROPERTY, ""), ", ");
+
+    private ScheduledExecutorService scheduler;
+
+    public CacheWarmer() {
+        this(JenkinsRetriever.getInstance());
+    }
+
+    public CacheWarmer(JenkinsRetriever jenkinsRetriever) {
+        this.jenkinsRetriever = jenkinsRetriever;
+    }
+
+    /**
+     * Setter method for automatic injection of the {@link HttpRetrievalService}.
+     *
+     * @param httpRetrievalService the http retrieval service to use
+     */
+    public void setHttpRetrievalService(HttpRetrievalService httpRetrievalService) {
+        this.httpRetrievalService = httpRetrievalService;
+    }
+
+    /**
+     * Setter method for automatic injection of the {@link BootstrapManager}, which knows the Confluence home.
+     *
+     * @param bootstrapManager the bootstrap manager to use
+     */
+    public void setBootstrapManager(BootstrapManager bootstrapManager) {
+        this.bootstrapManager = bootstrapManager;
+    }
+
+    /**
+     * Restores the persisted update center, then starts prefetching right away and then on schedule.
+     */
+    public synchronized void enabled() {
+        if (scheduler != null) {
+            return;
+        }
+        File snapshotDirectory = getSnapshotDirectory();
+        if (snapshotDirectory != null) {
+            UpdateCenterCache updateCenterCache = jenkinsRetriever.getUpdateCenterCache();
+            updateCenterCache.setStore(new SnapshotStore(new File(snapshotDirectory, SNAPSHOT_FILE)));
+            updateCenterCache.restore();
+        }
+        scheduler = BackgroundExecutors.newScheduler("prefetch");
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                prefetch();
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops prefetching and all background work, the caches are kept.
+     */
+    public synchronized void disabled() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        BackgroundExecutors.shutdown();
+    }
+
+    /**
+     * Loads whatever expires before the next prefetch. Failures are left to the caches, which keep serving what they
+     * have and remember the failure; the next prefetch simply tries again.
+     */
+    public void prefetch() {
+        UpdateCenterCache updateCenterCache = jenkinsRetriever.getUpdateCenterCache();
+        try {
+            updateCenterCache.prefetch(httpRetrievalService, horizon(updateCenterCache.getTtl()));
+        } catch (Exception e) {
+            // remembered by the cache
+        }
+
+        StatsCache statsCache = jenkinsRetriever.getStatsCache();
+        long horizon = horizon(statsCache.getTtl());
+        Set<String> ids = new LinkedHashSet<String>();
+        for (String pluginId : pluginIds) {
+            ids.add(pluginId);
+        }
+        ids.addAll(statsCache.getMostViewed(statsCount));
+        for (String pluginId : ids) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            statsCache.prefetch(httpRetrievalService, pluginId, horizon);
+        }
+    }
+
+    /**
+     * Gets how long data prefetched now must stay fresh: twice the interval, so a slow prefetch can't let anything
+     * expire, but at most half the time to live of the data, or data loaded just now would be loaded again.
+     */
+    private long horizon(long ttl) {
+        return Math.min(2 * interval, ttl / 2);
+    }
+
+    /**
+     * @return the directory to persist the update center in, <code>null</code> if there is none
+     */
+    File getSnapshotDirectory() {
+        String directory = System.getProperty(SNAPSHOT_DIRECTORY_PROPERTY);
+        if (directory != null) {
+            return new File(directory);
+        }
+        if (bootstrapManager == null || bootstrapManager.getConfluenceHome() == null) {
+            return null;
+        }
+        return new File(bootstrapManager.getConfluenceHome(), DEFAULT_SNAPSHOT_DIRECTORY);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval
+     *            the time (in millis) between prefetches, takes effect when the plugin is enabled
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getStatsCount() {
+        return statsCount;
+    }
+
+    public void setStatsCount(int statsCount) {
+        this.statsCount = statsCount;
+    }
+
+    public void setPluginIds(String... pluginIds) {
+        this.pluginIds = pluginIds.clone();
+    }
+}
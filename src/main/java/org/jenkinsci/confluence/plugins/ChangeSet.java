@@ -0,0 +1,52 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * What changed between an update center snapshot and the one loaded before it.
+ * <p>
+ * Besides the plugins that were added, removed or changed, it knows all plugins whose rendered information may show
+ * something of a changed plugin: the plugins depending on it, directly or transitively, and the plugins it depends on
+ * (or used to depend on), which list it as a dependent.
+ */
+public class ChangeSet {
+
+    private final long previousId;
+    private final Set<String> changed;
+    private final Set<String> affected;
+
+    public ChangeSet(long previousId, Set<String> changed, Set<String> affected) {
+        this.previousId = previousId;
+        this.changed = Collections.unmodifiableSet(changed);
+        this.affected = Collections.unmodifiableSet(affected);
+    }
+
+    /**
+     * @return the id of the snapshot the changes are relative to
+     */
+    public long getPreviousId() {
+        return previousId;
+    }
+
+    /**
+     * @return the (unmodifiable) ids of the plugins added, removed or changed
+     */
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the (unmodifiable) ids of the changed plugins and of all plugins showing something of them
+     */
+    public Set<String> getAffected() {
+        return affected;
+    }
+
+    /**
+     * @return whether the information rendered for the given plugin may differ from the previous snapshot
+     */
+    public boolean isAffected(String pluginId) {
+        return affected.contains(pluginId);
+    }
+}
@@ -0,0 +1,273 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The dependencies between the plugins of an update center snapshot. Its index is built once per snapshot, by the task
+ * loading the snapshot (or else on first use), so lookups are proportional to their result instead of to the number of
+ * plugins.
+ * <p>
+ * Transitive closures are computed on first use and kept for the lifetime of the snapshot. Computing a closure reuses
+ * the closures already known for the plugins it reaches, and stops at plugins it has already seen, so dependency
+ * cycles are harmless.
+ */
+public class DependencyGraph {
+
+    private static final Comparator<PluginInfo.Dependency> BY_NAME = new Comparator<PluginInfo.Dependency>() {
+        public int compare(PluginInfo.Dependency o1, PluginInfo.Dependency o2) {
+            return o1.getName().compareTo(o2.getName());
+        }
+    };
+
+    private static final Comparator<Dependent> BY_PLUGIN_ID = new Comparator<Dependent>() {
+        public int compare(Dependent o1, Dependent o2) {
+            return o1.pluginId.compareTo(o2.pluginId);
+        }
+    };
+
+    /**
+     * The plugins depending on a plugin, by id of the plugin they depend on. Built by {@link #index()}, or on first use
+     * by graphs that were not indexed.
+     */
+    private volatile Map<String, List<Dependent>> dependents;
+
+    private final Map<String, PluginInfo> plugins;
+
+    /**
+     * Memoized closures, by plugin id, with and without optional dependencies.
+     */
+    private final ConcurrentMap<String, List<PluginInfo.Dependency>> closures = new ConcurrentHashMap<String, List<PluginInfo.Dependency>>();
+    private final ConcurrentMap<String, List<PluginInfo.Dependency>> requiredClosures = new ConcurrentHashMap<String, List<PluginInfo.Dependency>>();
+
+    public DependencyGraph(Map<String, PluginInfo> plugins) {
+        this.plugins = plugins;
+    }
+
+    /**
+     * Builds the index of the dependents, unless it was built already, so no lookup has to.
+     */
+    public void index() {
+        dependents();
+    }
+
+    /**
+     * @return whether the index of the dependents is built
+     */
+    boolean isIndexed() {
+        return dependents != null;
+    }
+
+    /**
+     * @return the plugins depending on the given one, ordered by id, empty if there are none
+     */
+    public List<Dependent> getDependents(String pluginId) {
+        List<Dependent> list = dependents().get(pluginId);
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    private Map<String, List<Dependent>> dependents() {
+        Map<String, List<Dependent>> index = dependents;
+        if (index == null) {
+            // concurrent first lookups may both build it, they build the same index
+            index = indexDependents(plugins);
+            dependents = index;
+        }
+        return index;
+    }
+
+    private static Map<String, List<Dependent>> indexDependents(Map<String, PluginInfo> plugins) {
+        Map<String, List<Dependent>> index = new HashMap<String, List<Dependent>>();
+        for (Map.Entry<String, PluginInfo> plugin : plugins.entrySet()) {
+            for (PluginInfo.Dependency dependency : plugin.getValue().getDependencies()) {
+                if (dependency.getName() == null) {
+                    continue;
+                }
+                List<Dependent> list = index.get(dependency.getName());
+                if (list == null) {
+                    list = new ArrayList<Dependent>();
+                    index.put(dependency.getName(), list);
+                }
+                list.add(new Dependent(plugin.getKey(), dependency.getVersion(), dependency.isOptional()));
+            }
+        }
+        for (Map.Entry<String, List<Dependent>> entry : index.entrySet()) {
+            List<Dependent> list = entry.getValue();
+            Collections.sort(list, BY_PLUGIN_ID);
+            entry.setValue(Collections.unmodifiableList(list));
+        }
+        return index;
+    }
+
+    /**
+     * Gets all plugins the given one needs, directly or through other plugins, with the highest of the minimum
+     * versions required along the way.
+     * 
+     * @param includeOptional
+     *            whether to follow optional dependencies, the plugins only reached through them are marked optional
+     * @return the dependencies ordered by plugin id, empty if there are none
+     */
+    public List<PluginInfo.Dependency> getTransitiveDependencies(String pluginId, boolean includeOptional) {
+        ConcurrentMap<String, List<PluginInfo.Dependency>> memo = includeOptional ? closures : requiredClosures;
+        List<PluginInfo.Dependency> closure = memo.get(pluginId);
+        if (closure == null) {
+            // concurrent first lookups may both compute it, they compute the same closure
+            closure = computeClosure(pluginId, includeOptional);
+            memo.putIfAbsent(pluginId, closure);
+        }
+        return closure;
+    }
+
+    private List<PluginInfo.Dependency> computeClosure(String pluginId, boolean includeOptional) {
+        // highest minimum version by plugin id, null if no version is known
+        Map<String, String> versions = new HashMap<String, String>();
+        Set<String> expanded = new HashSet<String>();
+        List<String> toExpand = new ArrayList<String>();
+        expanded.add(pluginId);
+        toExpand.add(pluginId);
+        while (!toExpand.isEmpty()) {
+            PluginInfo plugin = plugins.get(toExpand.remove(toExpand.size() - 1));
+            if (plugin == null) {
+                // not in the update center, its dependencies are unknown
+                continue;
+            }
+            for (PluginInfo.Dependency dependency : plugin.getDependencies()) {
+                String name = dependency.getName();
+                if (name == null || dependency.isOptional() && !includeOptional) {
+                    continue;
+                }
+                require(versions, name, dependency.getVersion());
+                if (!expanded.add(name)) {
+                    continue;
+                }
+                List<PluginInfo.Dependency> known = (includeOptional ? closures : requiredClosures).get(name);
+                if (known == null) {
+                    toExpand.add(name);
+                } else {
+                    for (PluginInfo.Dependency transitive : known) {
+                        require(versions, transitive.getName(), transitive.getVersion());
+                        expanded.add(transitive.getName());
+                    }
+                }
+            }
+        }
+        versions.remove(pluginId);
+
+        // anything that isn't required is only reached through optional dependencies
+        Collection<PluginInfo.Dependency> required = includeOptional ? getTransitiveDependencies(pluginId, false)
+                : Collections.<PluginInfo.Dependency> emptyList();
+        Set<String> requiredNames = new HashSet<String>();
+        for (PluginInfo.Dependency dependency : required) {
+            requiredNames.add(dependency.getName());
+        }
+
+        PluginInfo.Dependency[] closure = new PluginInfo.Dependency[versions.size()];
+        int i = 0;
+        for (Map.Entry<String, String> entry : versions.entrySet()) {
+            closure[i++] = new PluginInfo.Dependency(entry.getKey(), entry.getValue(), includeOptional
+                    && !requiredNames.contains(entry.getKey()));
+        }
+        Arrays.sort(closure, BY_NAME);
+        return Collections.unmodifiableList(Arrays.asList(closure));
+    }
+
+    private static void require(Map<String, String> versions, String name, String version) {
+        String current = versions.get(name);
+        if (current == null || version != null && compareVersions(version, current) > 0) {
+            versions.put(name, version);
+        }
+    }
+
+    /**
+     * Compares version numbers part by part (separated by '.' or '-'): numbers numerically, anything else
+     * alphabetically, a number is higher than a qualifier. If all parts are equal, additional numbers make a version
+     * higher and an additional qualifier makes it lower.
+     */
+    static int compareVersions(String v1, String v2) {
+        String[] parts1 = v1.split("[.-]");
+        String[] parts2 = v2.split("[.-]");
+        for (int i = 0; i < parts1.length && i < parts2.length; i++) {
+            boolean number1 = isNumber(parts1[i]);
+            boolean number2 = isNumber(parts2[i]);
+            int result;
+            if (number1 && number2) {
+                result = new BigInteger(parts1[i]).compareTo(new BigInteger(parts2[i]));
+            } else if (number1 || number2) {
+                result = number1 ? 1 : -1;
+            } else {
+                result = parts1[i].compareTo(parts2[i]);
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        if (parts1.length == parts2.length) {
+            return 0;
+        }
+        // 1.0.1 is higher than 1.0, but 1.0-beta is lower
+        if (parts1.length > parts2.length) {
+            return isNumber(parts1[parts2.length]) ? 1 : -1;
+        }
+        return isNumber(parts2[parts1.length]) ? -1 : 1;
+    }
+
+    private static boolean isNumber(String part) {
+        if (part.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < part.length(); i++) {
+            if (!Character.isDigit(part.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * A plugin depending on another one.
+     */
+    public static class Dependent {
+
+        private final String pluginId;
+        private final String version;
+        private final boolean optional;
+
+        public Dependent(String pluginId, String version, boolean optional) {
+            this.pluginId = pluginId;
+            this.version = version;
+            this.optional = optional;
+        }
+
+        /**
+         * @return the id of the depending plugin
+         */
+        public String getPluginId() {
+            return pluginId;
+        }
+
+        /**
+         * @return the version the depending plugin requires at least, <code>null</code> if it is unknown
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Loads the update center and the installation stats from local files, e.g. a copy synced from the Jenkins sites for
+ * a Confluence without access to them. Files may be gzipped.
+ * <p>
+ * A file is only read again once its size or modification time changed, like a server answering a conditional
+ * request.
+ */
+public class FileSource implements UpdateCenterSource, StatsSource {
+
+    private static final int NOT_FOUND = 404;
+
+    private final File updateCenterFile;
+    private final File statsDirectory;
+
+    /**
+     * @param updateCenterFile
+     *            the update center document
+     * @param statsDirectory
+     *            the directory the stats are found in, as <code>&lt;pluginId&gt;.stats.json</code>
+     */
+    public FileSource(File updateCenterFile, File statsDirectory) {
+        this.updateCenterFile = updateCenterFile;
+        this.statsDirectory = statsDirectory;
+    }
+
+    public SourceDocument openUpdateCenter(HttpRetrievalService httpRetrievalService, HttpValidators validators)
+            throws IOException {
+        if (!updateCenterFile.isFile()) {
+            throw new FileNotFoundException(updateCenterFile.getPath());
+        }
+        return open(updateCenterFile, validators);
+    }
+
+    /**
+     * @throws PluginHttpException
+     *             with status 404 if there is no stats file for the plugin, as a server would answer, or if the plugin
+     *             id is not a plain file name
+     */
+    public SourceDocument openStats(HttpRetrievalService httpRetrievalService, String pluginId,
+            HttpValidators validators) throws IOException, PluginHttpException {
+        // the id comes from the page, it must not reach files outside the stats directory
+        if (pluginId.indexOf('/') >= 0 || pluginId.indexOf('\\') >= 0 || pluginId.contains("..")) {
+            throw new PluginHttpException(NOT_FOUND);
+        }
+        File file = new File(statsDirectory, pluginId + ".stats.json");
+        if (!file.isFile()) {
+            throw new PluginHttpException(NOT_FOUND);
+        }
+        return open(file, validators);
+    }
+
+    private static SourceDocument open(File file, HttpValidators validators) throws IOException {
+        // the size and modification time serve as entity tag
+        String etag = "\"" + file.length() + "-" + file.lastModified() + "\"";
+        if (validators != null && etag.equals(validators.getEtag())) {
+            return SourceDocument.notModified(null);
+        }
+        return SourceDocument.modified(new FileInputStream(file), new HttpValidators(etag, null));
+    }
+
+    public File getUpdateCenterFile() {
+        return updateCenterFile;
+    }
+
+    public File getStatsDirectory() {
+        return statsDirectory;
+    }
+}
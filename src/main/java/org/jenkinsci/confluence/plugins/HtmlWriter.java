@@ -0,0 +1,89 @@
+package org.jenkinsci.confluence.plugins;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Writes the plugin information straight as HTML, the counterpart of {@link WikiWriter} for output that doesn't go
+ * through the wiki renderer. Text and attribute values are escaped, markup passed to {@link #raw(String)} is not.
+ */
+public class HtmlWriter {
+    /**
+     * Building string into this.
+     */
+    public final StringBuilder buf = new StringBuilder();
+
+    HtmlWriter raw(String html) {
+        buf.append(html);
+        return this;
+    }
+
+    HtmlWriter text(String text) {
+        buf.append(StringEscapeUtils.escapeHtml(text));
+        return this;
+    }
+
+    HtmlWriter href(String text, String url) {
+        buf.append("<a href=\"").append(StringEscapeUtils.escapeHtml(url)).append("\">");
+        return text(text).raw("</a>");
+    }
+
+    HtmlWriter h4(String title) {
+        return raw("<h4>").text(title).raw("</h4>\n");
+    }
+
+    HtmlWriter image(String src) {
+        buf.append("<img src=\"").append(StringEscapeUtils.escapeHtml(src))
+                .append("\" class=\"confluence-embedded-image confluence-external-resource\" />");
+        return this;
+    }
+
+    HtmlWriter br() {
+        return raw("<br />");
+    }
+
+    HtmlWriter startTable() {
+        return raw("<div class=\"table-wrap\"><table class=\"confluenceTable\"><tbody>\n");
+    }
+
+    HtmlWriter endTable() {
+        return raw("</tbody></table></div>\n");
+    }
+
+    HtmlWriter startRow() {
+        return raw("<tr>");
+    }
+
+    HtmlWriter endRow() {
+        return raw("</tr>\n");
+    }
+
+    /**
+     * Writes a header cell, the lines are separated by line breaks.
+     */
+    HtmlWriter th(String... lines) {
+        raw("<th class=\"confluenceTh\">");
+        for (int i = 0; i < lines.length; i++) {
+            if (i > 0) {
+                br();
+            }
+            text(lines[i]);
+        }
+        return raw("</th>");
+    }
+
+    HtmlWriter startTd() {
+        return raw("<td class=\"confluenceTd\">");
+    }
+
+    HtmlWriter endTd() {
+        return raw("</td>");
+    }
+
+    public String toString() {
+        return buf.toString();
+    }
+
+    public int length() {
+        return buf.length();
+    }
+}
@@ -0,0 +1,91 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+
+import com.atlassian.confluence.util.http.HttpRequest;
+import com.atlassian.confluence.util.http.HttpResponse;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Loads the update center and the installation stats over http, from the Jenkins sites or from a mirror of them.
+ * Documents are requested gzipped, and conditional on the validators of the documents loaded before.
+ */
+public class HttpSource implements UpdateCenterSource, StatsSource {
+
+    private static final int NOT_MODIFIED = 304;
+
+    private final String updateCenterUrl;
+    private final String statsUrl;
+
+    /**
+     * @param updateCenterUrl
+     *            the url of the update center document
+     * @param statsUrl
+     *            the url the stats are found under, as <code>&lt;pluginId&gt;.stats.json</code>
+     */
+    public HttpSource(String updateCenterUrl, String statsUrl) {
+        this.updateCenterUrl = updateCenterUrl;
+        this.statsUrl = statsUrl;
+    }
+
+    public SourceDocument openUpdateCenter(HttpRetrievalService httpRetrievalService, HttpValidators validators)
+            throws IOException, PluginHttpException {
+        return open(httpRetrievalService, updateCenterUrl, validators);
+    }
+
+    public SourceDocument openStats(HttpRetrievalService httpRetrievalService, String pluginId,
+            HttpValidators validators) throws IOException, PluginHttpException {
+        return open(httpRetrievalService, statsUrl + pluginId + ".stats.json", validators);
+    }
+
+    private SourceDocument open(HttpRetrievalService httpRetrievalService, String url, HttpValidators validators)
+            throws IOException, PluginHttpException {
+        HttpRequest request = httpRetrievalService.getDefaultRequestFor(url);
+        request.setHeader("Accept-Encoding", "gzip");
+        if (validators != null) {
+            validators.apply(request);
+        }
+        final HttpResponse response = httpRetrievalService.get(request);
+        if (validators != null && response.getStatusCode() == NOT_MODIFIED) {
+            HttpValidators revalidated = HttpValidators.from(response);
+            // there is no body to close, the connection is released right away
+            response.finish();
+            return SourceDocument.notModified(revalidated);
+        }
+        if (response.getStatusCode() != 200) {
+            response.finish();
+            throw new PluginHttpException(response.getStatusCode());
+        }
+        InputStream body = null;
+        try {
+            body = response.getResponse();
+        } finally {
+            if (body == null) {
+                response.finish();
+            }
+        }
+        // closing the body releases the connection
+        return SourceDocument.modified(new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    response.finish();
+                }
+            }
+        }, HttpValidators.from(response));
+    }
+
+    public String getUpdateCenterUrl() {
+        return updateCenterUrl;
+    }
+
+    public String getStatsUrl() {
+        return statsUrl;
+    }
+}
@@ -0,0 +1,56 @@
+package org.jenkinsci.confluence.plugins;
+
+import com.atlassian.confluence.util.http.HttpRequest;
+import com.atlassian.confluence.util.http.HttpResponse;
+
+/**
+ * The cache validators (<code>ETag</code> and <code>Last-Modified</code>) a server sent along with a document, used to
+ * ask the server with a conditional request whether the document changed since.
+ */
+public class HttpValidators {
+
+    private final String etag;
+    private final String lastModified;
+
+    public HttpValidators(String etag, String lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @return the validators of the given response, <code>null</code> if the server did not send any
+     */
+    public static HttpValidators from(HttpResponse response) {
+        String etag = firstHeader(response, "ETag");
+        String lastModified = firstHeader(response, "Last-Modified");
+        if (etag == null && lastModified == null) {
+            return null;
+        }
+        return new HttpValidators(etag, lastModified);
+    }
+
+    private static String firstHeader(HttpResponse response, String name) {
+        String[] values = response.getHeaders(name);
+        return values == null || values.length == 0 ? null : values[0];
+    }
+
+    /**
+     * Makes the given request conditional on the document having changed.
+     */
+    public void apply(HttpRequest request) {
+        if (etag != null) {
+            request.setHeader("If-None-Match", etag);
+        }
+        if (lastModified != null) {
+            request.setHeader("If-Modified-Since", lastModified);
+        }
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+}
@@ -1,12 +1,23 @@
 package org.jenkinsci.confluence.plugins;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.Map.Entry;
-
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.atlassian.confluence.renderer.PageContext;
 import com.atlassian.renderer.RenderContext;
 import com.atlassian.renderer.v2.RenderMode;
 import com.atlassian.renderer.v2.SubRenderer;
@@ -14,21 +25,64 @@ import com.atlassian.renderer.v2.macro.BaseMacro;
 import com.atlassian.renderer.v2.macro.MacroException;
 import com.atlassian.confluence.util.http.HttpRetrievalService;
 
-import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
 import org.json.simple.parser.ParseException;
 
 public class JenkinsPluginInfoMacro extends BaseMacro {
 
     private HttpRetrievalService httpRetrievalService;
 
-    private JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+    private JenkinsRetriever jenkinsRetriever = JenkinsRetriever.getInstance();
+
+    private RenderedFragmentCache fragmentCache = RenderedFragmentCache.getInstance();
+
+    /**
+     * System property to override the default time (in millis) a render waits for the installation stats.
+     */
+    public static final String STATS_DEADLINE_PROPERTY = JenkinsPluginInfoMacro.class.getName() + ".statsDeadline";
+
+    public static final long DEFAULT_STATS_DEADLINE = 10000L;
+
+    private long statsDeadline = Long.getLong(STATS_DEADLINE_PROPERTY, DEFAULT_STATS_DEADLINE);
+
+    /**
+     * System property to override the default space of the installation statistics page, for renders outside of a
+     * space.
+     */
+    public static final String STATS_SPACE_KEY_PROPERTY = JenkinsPluginInfoMacro.class.getName() + ".statsSpaceKey";
+
+    public static final String DEFAULT_STATS_SPACE_KEY = "JENKINS";
+
+    private String statsSpaceKey = System.getProperty(STATS_SPACE_KEY_PROPERTY, DEFAULT_STATS_SPACE_KEY);
+
+    private static final Timer EXECUTE = Metrics.getInstance().timer("execute");
+
+    /**
+     * Time the {@link SubRenderer} takes to render the wiki markup.
+     */
+    private static final Timer RENDER_WIKI = Metrics.getInstance().timer("render.wiki");
+
+    private static final Timer RENDER_HTML = Metrics.getInstance().timer("render.html");
 
     private static final String OUTPUT_PARAMETER = "output";
     private static final String OUTPUT_PARAMETER_HTML = "html";
     private static final String OUTPUT_PARAMETER_WIKI = "wiki";
+
+    private static final String CHART_PARAMETER = "chart";
+    private static final String CHART_PARAMETER_SVG = "svg";
+    private static final String USED_BY_PARAMETER = "usedBy";
+    private static final String TRANSITIVE_PARAMETER = "transitive";
+    private static final String EXCLUDE_OPTIONAL_PARAMETER = "excludeOptional";
+    /**
+     * The start of the placeholder of the svg chart, followed by a random part so no content can contain it.
+     */
+    private static final String SVG_CHART_PLACEHOLDER = "jenkinspluginsvgchart";
+
+    private static final String FISHEYE_END_URL = "%20group%20by%20changeset"
+        + "%20return%20csid,%20comment,%20author,%20path";
+    private static final String INSTALLATION_STATISTICS_PAGE = "Plugin Installation Statistics";
     
     /**
      * Setter method for automatic injection of the {@link HttpRetrievalService}.
@@ -38,7 +92,38 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
     public void setHttpRetrievalService(HttpRetrievalService httpRetrievalService) {
         this.httpRetrievalService = httpRetrievalService;
     }
-    
+
+    /**
+     * @param statsDeadline
+     *            the time (in millis), counted from the start of the render, after which the plugin information is
+     *            rendered without the installation stats
+     */
+    public void setStatsDeadline(long statsDeadline) {
+        this.statsDeadline = statsDeadline;
+    }
+
+    /**
+     * @param statsSpaceKey
+     *            the space of the installation statistics page linked by renders outside of a space
+     */
+    public void setStatsSpaceKey(String statsSpaceKey) {
+        this.statsSpaceKey = statsSpaceKey;
+    }
+
+    /**
+     * Replaces the shared retriever, e.g. by one with its own caches.
+     */
+    void setJenkinsRetriever(JenkinsRetriever jenkinsRetriever) {
+        this.jenkinsRetriever = jenkinsRetriever;
+    }
+
+    /**
+     * Replaces the shared fragment cache, e.g. by an empty one to always render.
+     */
+    void setFragmentCache(RenderedFragmentCache fragmentCache) {
+        this.fragmentCache = fragmentCache;
+    }
+
     /**
      * non inline, so we return false
      */
@@ -61,11 +146,8 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
         return RenderMode.NO_RENDER;
     }
     
-    private String getString(JSONObject o, String prop) {
-        if(o.containsKey(prop))
-            return o.get(prop).toString();
-        else
-            return "n/a";
+    private String getString(String value) {
+        return value == null ? "n/a" : value;
     }
 
     /**
@@ -80,6 +162,15 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
      */
     public String execute(Map parameters, String body, RenderContext renderContext)
             throws MacroException {
+        long start = EXECUTE.start();
+        try {
+            return render(parameters, renderContext);
+        } finally {
+            EXECUTE.stop(start);
+        }
+    }
+
+    private String render(Map parameters, RenderContext renderContext) {
         String pluginId = (String)parameters.get("pluginId");
         if (pluginId == null) {
             pluginId = (String)parameters.get("0"); // Accept pluginId value without "pluginId="
@@ -90,18 +181,41 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
 
         String jiraComponent = (String) parameters.get("jiraComponent");
         String sourceDir = (String) parameters.get("sourceDir");
+        boolean svgChart = CHART_PARAMETER_SVG.equals(parameters.get(CHART_PARAMETER));
+        boolean html = OUTPUT_PARAMETER_HTML.equals(parameters.get(OUTPUT_PARAMETER));
+        boolean usedBy = Boolean.valueOf((String) parameters.get(USED_BY_PARAMETER));
+
+        // fresh stats are taken from the cache right away, missing ones are fetched while the update center is looked
+        // up and the render waits for both
+        long deadline = System.currentTimeMillis() + statsDeadline;
+        PageRenderMemo memo = PageRenderMemo.of(renderContext);
+        StatsCache.Entry stats = jenkinsRetriever.getFreshStats(pluginId);
+        Future<StatsCache.Entry> statsFuture = stats == null ? fetchStats(memo, pluginId) : null;
 
         try {
-            JSONObject updateCenter = jenkinsRetriever.retrieveUpdateCenterDetails(httpRetrievalService);
-            JSONObject plugins = (JSONObject) updateCenter.get("plugins");
+            UpdateCenterSnapshot updateCenter = memo.getUpdateCenter(jenkinsRetriever, httpRetrievalService);
+            PluginInfo plugin = updateCenter.getPlugin(pluginId);
+            if (plugin == null) {
+                stats = null;
+            } else if (stats == null) {
+                stats = getStats(statsFuture, deadline);
+            }
+
+            fragmentCache.advance(updateCenter);
+            RenderedFragmentCache.Key fragmentKey = new RenderedFragmentCache.Key(pluginId, parameters,
+                    renderContext, updateCenter.getId(), stats == null ? 0 : stats.getId());
+            String fragment = fragmentCache.get(fragmentKey);
+            if (fragment != null) {
+                return fragment;
+            }
 
             WikiWriter toBeRendered = null;
+            String svgChartPlaceholder = null;
 
-            if (plugins.containsKey(pluginId)) {
-                JSONObject pluginJSON = (JSONObject) plugins.get(pluginId);
-                final StatsInfoParser statsParser = getStatsParser(renderContext, pluginId);
+            if (plugin != null) {
+                final StatsInfoParser statsParser = stats == null ? null : stats.getStats();
 
-                String name = getString(pluginJSON, "name");
+                String name = getString(plugin.getName());
 
                 if (jiraComponent == null) {
                     jiraComponent = name;
@@ -109,41 +223,35 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
                 if (!jiraComponent.endsWith("-plugin")) {
                     jiraComponent += "-plugin";
                 }
-                boolean isGithub = getString(pluginJSON, "scm").endsWith("github.com"); // Default to svn
+                boolean isGithub = isGithub(plugin); // Default to svn
                 if (sourceDir == null) {
                     sourceDir = name + (isGithub && !name.endsWith("-plugin") ? "-plugin" : "");
                 }
 
-                String releaseTimestamp = getString(pluginJSON, "releaseTimestamp");
-                String fisheyeBaseUrl = "http://fisheye.jenkins-ci.org/search/Jenkins"
-                    + "/trunk/hudson/plugins/" + sourceDir
-                    + "?ql=select%20revisions%20from%20dir%20/trunk/hudson/plugins/"
-                    + sourceDir + "%20where%20date%20>%20";
-                String fisheyeEndUrl = "%20group%20by%20changeset"
-                    + "%20return%20csid,%20comment,%20author,%20path";
-                String githubBaseUrl = "https://github.com/jenkinsci/" + sourceDir + "/compare/" + name + "-";
-                String version = getString(pluginJSON, "version");
+                if (html) {
+                    // typed data straight to html, no wiki rendering needed
+                    long start = RENDER_HTML.start();
+                    try {
+                        fragment = renderHtml(parameters, pluginId, updateCenter, plugin, statsParser, jiraComponent,
+                                sourceDir, renderContext);
+                    } finally {
+                        RENDER_HTML.stop(start);
+                    }
+                    fragmentCache.put(fragmentKey, fragment);
+                    return fragment;
+                }
+
+                String version = getString(plugin.getVersion());
 
                 toBeRendered = new WikiWriter().h4("Plugin Information");
 
                 {// first row
                     toBeRendered.append("|| Plugin ID | ")
                                 .append(name)
-                                .append(" || Changes | [In Latest Release|");
-                    if (isGithub) {
-                        String prevVer = getString(pluginJSON, "previousVersion");
-                        toBeRendered.append(githubBaseUrl).append(prevVer)
-                                    .append("...").append(name).append('-').append(version)
-                                    .append("]\n[Since Latest Release|").append(githubBaseUrl)
-                                    .append(version).append("...master]");
-                    } else {
-                        toBeRendered.append(fisheyeBaseUrl)
-                                    .append(getString(pluginJSON, "previousTimestamp"))
-                                    .append("%20and%20date%20<%20").append(releaseTimestamp)
-                                    .append(fisheyeEndUrl)
-                                    .append("]\n[Since Latest Release|").append(fisheyeBaseUrl)
-                                    .append(releaseTimestamp).append(fisheyeEndUrl).append(']');
-                    }
+                                .append(" || Changes | ")
+                                .href("In Latest Release", getLatestChangesUrl(plugin, sourceDir))
+                                .append("\n")
+                                .href("Since Latest Release", getSinceLatestChangesUrl(plugin, sourceDir));
                     /* JENKINS-25008 would let us add this back.
                     if (isGithub) {
                         String ciUrl = "https://jenkins.ci.cloudbees.com/job/plugins/job/" + sourceDir;
@@ -155,44 +263,40 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
                 }
 
                 {// second row
-                    String requiredCore = getString(pluginJSON, "requiredCore");
+                    String requiredCore = getString(plugin.getRequiredCore());
                     toBeRendered.append(" || Latest Release \\\\ Latest Release Date \\\\ Required Core \\\\ Dependencies | ")
-                                .href(version,"http://updates.jenkins-ci.org/latest/"+name+".hpi").append(" ").href("(archives)","http://updates.jenkins-ci.org/download/plugins/"+name+"/")
-                                .br().append(getString(pluginJSON, "buildDate"))
-                                .br().href(requiredCore,"http://updates.jenkins-ci.org/download/war/"+requiredCore+"/jenkins.war")
-                                .br().append(getDependencies(updateCenter, pluginJSON))
+                                .href(version, getLatestUrl(name)).append(" ").href("(archives)", getArchivesUrl(name))
+                                .br().append(getString(plugin.getBuildDate()))
+                                .br().href(requiredCore, getCoreUrl(requiredCore))
+                                .br().append(getDependencies(updateCenter, getDependencyList(parameters, updateCenter, pluginId, plugin)))
 
 
                                 .append(" || Source Code \\\\ Issue Tracking ").append(isGithub ? "\\\\ Pull Requests " : "").append("\\\\ Maintainer(s) | ")
-                                .append(isGithub ? "[GitHub|https://github.com/jenkinsci/" : "[Subversion|https://svn.jenkins-ci.org/trunk/hudson/plugins/").append(sourceDir).append(']')
-                                .br().append("[Open Issues|http://issues.jenkins-ci.org/secure/IssueNavigator.jspa?mode=hide&reset=true&jqlQuery=project+%3D+JENKINS+AND+status+in+%28Open%2C+%22In+Progress%22%2C+Reopened%29+AND+component+%3D+%27").append(jiraComponent).append("%27]")
+                                .href(isGithub ? "GitHub" : "Subversion", getSourceUrl(isGithub, sourceDir))
+                                .br().href("Open Issues", getIssuesUrl(jiraComponent))
                                 .br();
                     if (isGithub) {
-                        toBeRendered.href("Pull Requests", "https://github.com/jenkinsci/" + sourceDir + "/pulls").br();
+                        toBeRendered.href("Pull Requests", getPullRequestsUrl(sourceDir)).br();
                     }
 
                     WikiWriter devString = new WikiWriter();
-                    if (pluginJSON.containsKey("developers")) {
-                        JSONArray devArray = (JSONArray)pluginJSON.get("developers");
-                        for (int i = 0; i < devArray.size(); i++) {
-                            JSONObject developer = (JSONObject)devArray.get(i);
-                            String devName = getString(developer, "name");
-                            String devId = getString(developer, "developerId");
-                            String devEmail = getString(developer, "email");
-
-                            if (devString.length()>0) {
-                                devString.append("\n");
-                            }
-
-                            if (!devEmail.equals("n/a")) {
-                                devString.href(devName,"mailto:" + devEmail);
-                            }
-                            else {
-                                devString.append(devName);
-                            }
-
-                            devString.print(" (id: %s)", devId);
+                    for (PluginInfo.Developer developer : plugin.getDevelopers()) {
+                        String devName = getString(developer.getName());
+                        String devId = getString(developer.getDeveloperId());
+                        String devEmail = developer.getEmail();
+
+                        if (devString.length()>0) {
+                            devString.append("\n");
                         }
+
+                        if (devEmail != null) {
+                            devString.href(devName,"mailto:" + devEmail);
+                        }
+                        else {
+                            devString.append(devName);
+                        }
+
+                        devString.print(" (id: %s)", devId);
                     }
 
                     if (devString.length()==0) {
@@ -202,40 +306,71 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
                     toBeRendered.append(" |\n ");
                 }
 
+                if (usedBy) {
+                    toBeRendered.append(" || Used By | ").append(getDependents(updateCenter, pluginId)).append(" |\n ");
+                }
+
                 {// third row
                     if(statsParser != null) {
-                        toBeRendered.append(" || Usage | ").image(statsParser.renderChartUrl(true));
+                        toBeRendered.append(" || Usage | ");
+                        if (svgChart) {
+                            // raw svg can't go through the wiki renderer, it replaces the placeholder afterwards
+                            svgChartPlaceholder = SVG_CHART_PLACEHOLDER + UUID.randomUUID().toString().replace("-", "");
+                            toBeRendered.append(svgChartPlaceholder);
+                        } else {
+                            toBeRendered.image(statsParser.renderChartUrl(true));
+                        }
                         toBeRendered.append(" || Installations | ");
-                        final SortedMap<Date, Integer> sortedSeries = statsParser.getSortedSeries();
-
                         SimpleDateFormat df = new SimpleDateFormat("yyyy-MMM");
-                        for (Entry<Date, Integer> serie : sortedSeries.entrySet()) {
-                            toBeRendered.append(df.format(serie.getKey())).append(' ').append(serie.getValue().toString()).append('\n');
+                        for (int i = 0; i < statsParser.getMonthCount(); i++) {
+                            toBeRendered.append(df.format(new Date(statsParser.getMonth(i)))).append(' ')
+                                        .append(Integer.toString(statsParser.getInstallations(i))).append('\n');
                         }
-                        toBeRendered.append("[(?)|Plugin Installation Statistics]");
+                        toBeRendered.href("(?)", getInstallationStatisticsPage(renderContext));
                         toBeRendered.append("|\n");
                     }
                 }
             }
 
+            if (html) {
+                fragment = new HtmlWriter().h4("Plugin Information").startTable().startRow()
+                        .th("No Information For This Plugin").endRow().endTable().toString();
+                fragmentCache.put(fragmentKey, fragment);
+                return fragment;
+            }
+
             if (toBeRendered==null) {
                 toBeRendered = new WikiWriter().h4("Plugin Information");
                 toBeRendered.append("|| No Information For This Plugin ||\n");
             } 
             
-            return subRenderer.render(toBeRendered.toString(), renderContext);
+            long start = RENDER_WIKI.start();
+            try {
+                fragment = subRenderer.render(toBeRendered.toString(), renderContext);
+            } finally {
+                RENDER_WIKI.stop(start);
+            }
+            if (svgChartPlaceholder != null) {
+                fragment = insertSvgChart(fragment, svgChartPlaceholder, stats.getStats(), toBeRendered.toString(),
+                        renderContext);
+            }
+            fragmentCache.put(fragmentKey, fragment);
+            return fragment;
         }
         catch (IOException e) {
+            Metrics.getInstance().error("execute", e);
             return subRenderer.render("h4. Plugin Information\n"
                                       + "{warning:title=Cannot Load Update Center}\n"
                                       + "IOException: " + e.getMessage() + "\n"
                                       + "{warning}\n", renderContext);
         } catch (PluginHttpException e) {
+            Metrics.getInstance().error("execute", e);
             return subRenderer.render("h4. Plugin Information\n"
                     + "{warning:title=Cannot Load Update Center}\n" + "error "
                     + e.getStatusCode() + " loading update-center.json\n"
                     + "{warning}\n", renderContext);
         } catch (ParseException e) {
+            Metrics.getInstance().error("execute", e);
             return subRenderer.render("h4. Plugin Information\n"
                                       + "{warning:title=Cannot Load Update Center}\n"
                                       + "ParseException: " + e + "\n"
@@ -243,14 +378,229 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
         }
     }
 
-    private String getDependencies(JSONObject updateCenter, JSONObject pluginJSON) {
+    private String renderHtml(Map parameters, String pluginId, UpdateCenterSnapshot updateCenter, PluginInfo plugin,
+            StatsInfoParser statsParser, String jiraComponent, String sourceDir, RenderContext renderContext) {
+        boolean svgChart = CHART_PARAMETER_SVG.equals(parameters.get(CHART_PARAMETER));
+        boolean usedBy = Boolean.valueOf((String) parameters.get(USED_BY_PARAMETER));
+        String name = getString(plugin.getName());
+        String version = getString(plugin.getVersion());
+        String requiredCore = getString(plugin.getRequiredCore());
+        boolean isGithub = isGithub(plugin);
+
+        HtmlWriter out = new HtmlWriter().h4("Plugin Information").startTable();
+
+        out.startRow().th("Plugin ID").startTd().text(name).endTd()
+           .th("Changes").startTd()
+           .href("In Latest Release", getLatestChangesUrl(plugin, sourceDir)).br()
+           .href("Since Latest Release", getSinceLatestChangesUrl(plugin, sourceDir))
+           .endTd().endRow();
+
+        out.startRow().th("Latest Release", "Latest Release Date", "Required Core", "Dependencies").startTd()
+           .href(version, getLatestUrl(name)).text(" ").href("(archives)", getArchivesUrl(name))
+           .br().text(getString(plugin.getBuildDate()))
+           .br().href(requiredCore, getCoreUrl(requiredCore))
+           .br();
+        boolean first = true;
+        for (PluginInfo.Dependency dependency : getDependencyList(parameters, updateCenter, pluginId, plugin)) {
+            String depName = getString(dependency.getName());
+            String depWikiUrl = getWikiUrl(updateCenter, depName);
+            if (!first) {
+                out.br();
+            }
+            first = false;
+            if (depWikiUrl.length() > 0) {
+                out.href(depName, depWikiUrl);
+            } else {
+                out.text(depName);
+            }
+            out.text(" (version:" + getString(dependency.getVersion()) + (dependency.isOptional() ? ", optional" : "")
+                    + ")");
+        }
+        out.endTd();
+
+        if (isGithub) {
+            out.th("Source Code", "Issue Tracking", "Pull Requests", "Maintainer(s)");
+        } else {
+            out.th("Source Code", "Issue Tracking", "Maintainer(s)");
+        }
+        out.startTd().href(isGithub ? "GitHub" : "Subversion", getSourceUrl(isGithub, sourceDir))
+           .br().href("Open Issues", getIssuesUrl(jiraComponent))
+           .br();
+        if (isGithub) {
+            out.href("Pull Requests", getPullRequestsUrl(sourceDir)).br();
+        }
+        first = true;
+        for (PluginInfo.Developer developer : plugin.getDevelopers()) {
+            String devName = getString(developer.getName());
+            String devEmail = developer.getEmail();
+            if (!first) {
+                out.br();
+            }
+            first = false;
+            if (devEmail != null) {
+                out.href(devName, "mailto:" + devEmail);
+            } else {
+                out.text(devName);
+            }
+            out.text(" (id: " + getString(developer.getDeveloperId()) + ")");
+        }
+        if (first) {
+            out.text("(not specified)");
+        }
+        out.endTd().endRow();
+
+        if (usedBy) {
+            out.startRow().th("Used By").startTd();
+            List<DependencyGraph.Dependent> dependents = updateCenter.getDependencyGraph().getDependents(pluginId);
+            for (int i = 0; i < dependents.size(); i++) {
+                DependencyGraph.Dependent dependent = dependents.get(i);
+                String wikiUrl = getWikiUrl(updateCenter, dependent.getPluginId());
+                if (i > 0) {
+                    out.br();
+                }
+                if (wikiUrl.length() > 0) {
+                    out.href(dependent.getPluginId(), wikiUrl);
+                } else {
+                    out.text(dependent.getPluginId());
+                }
+                if (dependent.isOptional()) {
+                    out.text(" (optional)");
+                }
+            }
+            if (dependents.isEmpty()) {
+                out.text("(none)");
+            }
+            out.endTd().endRow();
+        }
+
+        if (statsParser != null) {
+            out.startRow().th("Usage").startTd();
+            if (svgChart) {
+                out.raw(statsParser.renderChartSvg());
+            } else {
+                out.image(statsParser.renderChartUrl(true));
+            }
+            out.endTd().th("Installations").startTd();
+            SimpleDateFormat df = new SimpleDateFormat("yyyy-MMM");
+            for (int i = 0; i < statsParser.getMonthCount(); i++) {
+                out.text(df.format(new Date(statsParser.getMonth(i))) + " " + statsParser.getInstallations(i)).br();
+            }
+            out.href("(?)", getInstallationStatisticsUrl(renderContext));
+            out.endTd().endRow();
+        }
+
+        return out.endTable().toString();
+    }
+
+    /**
+     * Gets the installation statistics page as a wiki link: the page in the space of the rendered page, in the
+     * configured space when rendering outside of a space.
+     */
+    private String getInstallationStatisticsPage(RenderContext renderContext) {
+        String spaceKey = getSpaceKey(renderContext);
+        return spaceKey == null ? statsSpaceKey + ":" + INSTALLATION_STATISTICS_PAGE : INSTALLATION_STATISTICS_PAGE;
+    }
+
+    /**
+     * Gets the url of the page the wiki link of {@link #getInstallationStatisticsPage(RenderContext)} points to.
+     */
+    private String getInstallationStatisticsUrl(RenderContext renderContext) {
+        String spaceKey = getSpaceKey(renderContext);
+        String siteRoot = renderContext.getSiteRoot();
+        try {
+            return (siteRoot == null ? "" : siteRoot) + "/display/"
+                    + URLEncoder.encode(spaceKey == null ? statsSpaceKey : spaceKey, "UTF-8") + "/"
+                    + URLEncoder.encode(INSTALLATION_STATISTICS_PAGE, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String getSpaceKey(RenderContext renderContext) {
+        return renderContext instanceof PageContext ? ((PageContext) renderContext).getSpaceKey() : null;
+    }
+
+    private boolean isGithub(PluginInfo plugin) {
+        return getString(plugin.getScm()).endsWith("github.com");
+    }
+
+    private String getLatestChangesUrl(PluginInfo plugin, String sourceDir) {
+        String name = getString(plugin.getName());
+        if (isGithub(plugin)) {
+            return "https://github.com/jenkinsci/" + sourceDir + "/compare/" + name + "-"
+                    + getString(plugin.getPreviousVersion()) + "..." + name + '-' + getString(plugin.getVersion());
+        }
+        return getFisheyeBaseUrl(sourceDir) + getString(plugin.getPreviousTimestamp()) + "%20and%20date%20<%20"
+                + getString(plugin.getReleaseTimestamp()) + FISHEYE_END_URL;
+    }
+
+    private String getSinceLatestChangesUrl(PluginInfo plugin, String sourceDir) {
+        if (isGithub(plugin)) {
+            return "https://github.com/jenkinsci/" + sourceDir + "/compare/" + getString(plugin.getName()) + "-"
+                    + getString(plugin.getVersion()) + "...master";
+        }
+        return getFisheyeBaseUrl(sourceDir) + getString(plugin.getReleaseTimestamp()) + FISHEYE_END_URL;
+    }
+
+    private String getFisheyeBaseUrl(String sourceDir) {
+        return "http://fisheye.jenkins-ci.org/search/Jenkins"
+            + "/trunk/hudson/plugins/" + sourceDir
+            + "?ql=select%20revisions%20from%20dir%20/trunk/hudson/plugins/"
+            + sourceDir + "%20where%20date%20>%20";
+    }
+
+    private String getLatestUrl(String name) {
+        return "http://updates.jenkins-ci.org/latest/" + name + ".hpi";
+    }
+
+    private String getArchivesUrl(String name) {
+        return "http://updates.jenkins-ci.org/download/plugins/" + name + "/";
+    }
+
+    private String getCoreUrl(String requiredCore) {
+        return "http://updates.jenkins-ci.org/download/war/" + requiredCore + "/jenkins.war";
+    }
+
+    private String getSourceUrl(boolean isGithub, String sourceDir) {
+        return (isGithub ? "https://github.com/jenkinsci/" : "https://svn.jenkins-ci.org/trunk/hudson/plugins/") + sourceDir;
+    }
+
+    private String getIssuesUrl(String jiraComponent) {
+        return "http://issues.jenkins-ci.org/secure/IssueNavigator.jspa?mode=hide&reset=true&jqlQuery=project+%3D+JENKINS+AND+status+in+%28Open%2C+%22In+Progress%22%2C+Reopened%29+AND+component+%3D+%27"
+                + jiraComponent + "%27";
+    }
+
+    private String getPullRequestsUrl(String sourceDir) {
+        return "https://github.com/jenkinsci/" + sourceDir + "/pulls";
+    }
+
+    /**
+     * Gets the dependencies to show: the direct ones or the transitive closure, with or without the optional ones.
+     */
+    private List<PluginInfo.Dependency> getDependencyList(Map parameters, UpdateCenterSnapshot updateCenter,
+            String pluginId, PluginInfo plugin) {
+        boolean includeOptional = !Boolean.valueOf((String) parameters.get(EXCLUDE_OPTIONAL_PARAMETER));
+        if (Boolean.valueOf((String) parameters.get(TRANSITIVE_PARAMETER))) {
+            return updateCenter.getDependencyGraph().getTransitiveDependencies(pluginId, includeOptional);
+        }
+        if (includeOptional) {
+            return plugin.getDependencies();
+        }
+        List<PluginInfo.Dependency> required = new ArrayList<PluginInfo.Dependency>();
+        for (PluginInfo.Dependency dependency : plugin.getDependencies()) {
+            if (!dependency.isOptional()) {
+                required.add(dependency);
+            }
+        }
+        return required;
+    }
+
+    private String getDependencies(UpdateCenterSnapshot updateCenter, List<PluginInfo.Dependency> dependencies) {
         WikiWriter depString = new WikiWriter();
-        final JSONArray depArray = (JSONArray) pluginJSON.get("dependencies");
-        for (int i = 0; i < depArray.size(); i++) {
-            JSONObject dependency = (JSONObject) depArray.get(i);
-            String depName = getString(dependency, "name");
-            String depVersion = getString(dependency, "version");
-            String depOptional = getString(dependency, "optional");
+        for (PluginInfo.Dependency dependency : dependencies) {
+            String depName = getString(dependency.getName());
+            String depVersion = getString(dependency.getVersion());
             String depWikiUrl = getWikiUrl(updateCenter, depName);
 
             if (depString.length()>0)
@@ -263,29 +613,101 @@ public class JenkinsPluginInfoMacro extends BaseMacro {
             }
 
             depString.append(" (version:" + depVersion);
-            if (Boolean.parseBoolean(depOptional))
+            if (dependency.isOptional())
                 depString.append(", optional");
             depString.append(")");
         }
         return depString.toString();
     }
     
-    private String getWikiUrl(JSONObject updateCenter, String pluginId) {
-        JSONObject plugins = (JSONObject)updateCenter.get("plugins");
-        JSONObject pluginJSON = (JSONObject)plugins.get(pluginId);
-        return pluginJSON == null ? "" : getString(pluginJSON, "wiki");
+    private String getDependents(UpdateCenterSnapshot updateCenter, String pluginId) {
+        WikiWriter depString = new WikiWriter();
+        for (DependencyGraph.Dependent dependent : updateCenter.getDependencyGraph().getDependents(pluginId)) {
+            String depWikiUrl = getWikiUrl(updateCenter, dependent.getPluginId());
+
+            if (depString.length()>0)
+                depString.br();
+
+            if (depWikiUrl.length() > 0) {
+                depString.href(dependent.getPluginId(), depWikiUrl);
+            } else {
+                depString.append(dependent.getPluginId());
+            }
+
+            if (dependent.isOptional())
+                depString.append(" (optional)");
+        }
+        if (depString.length()==0) {
+            depString.append("(none)");
+        }
+        return depString.toString();
     }
 
-    private StatsInfoParser getStatsParser(RenderContext renderContext, String pluginId) {
-        try {
-            String rawStats = jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, pluginId);
-            if (StringUtils.isNotBlank(rawStats)) {
-                return new StatsInfoParser(pluginId, rawStats);
+    /**
+     * Puts the svg chart in place of its placeholder in the rendered fragment. If the wiki renderer did not keep the
+     * placeholder as is, exactly once, the wiki markup is rendered again with the image chart instead.
+     */
+    private String insertSvgChart(String fragment, String placeholder, StatsInfoParser stats, String wiki,
+            RenderContext renderContext) {
+        int at = fragment.indexOf(placeholder);
+        if (at >= 0 && fragment.indexOf(placeholder, at + placeholder.length()) < 0) {
+            return fragment.substring(0, at) + stats.renderChartSvg() + fragment.substring(at + placeholder.length());
+        }
+        Metrics.getInstance().error("execute", new IllegalStateException("svg chart placeholder not rendered as is"));
+        return subRenderer.render(wiki.replace(placeholder, new WikiWriter().image(stats.renderChartUrl(true))
+                .toString()), renderContext);
+    }
+
+    private String getWikiUrl(UpdateCenterSnapshot updateCenter, String pluginId) {
+        PluginInfo plugin = updateCenter.getPlugin(pluginId);
+        return plugin == null ? "" : getString(plugin.getWiki());
+    }
+
+    /**
+     * Gets the stats of the given plugin fetched for the page. The first macro of a page fetches the stats of all
+     * plugins on it at once, as far as the fetch executor takes them.
+     *
+     * @return the fetch, <code>null</code> if the fetch executor is saturated
+     */
+    private Future<StatsCache.Entry> fetchStats(PageRenderMemo memo, String pluginId) {
+        return memo.fetchStats(pluginId, new PageRenderMemo.StatsFetcher() {
+            public Future<StatsCache.Entry> fetch(final String fetched) {
+                try {
+                    return BackgroundExecutors.fetch().submit(new Callable<StatsCache.Entry>() {
+                        public StatsCache.Entry call() {
+                            return jenkinsRetriever.getStats(httpRetrievalService, fetched);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    return null;
+                }
             }
-        } catch (Exception e) {
-            subRenderer.render("h4. Stats\n" + "{warning:title=Cannot load statistics}\n" + "Exception: " + e.getMessage() + "\n"
-                    + "{warning}\n", renderContext);
+        });
+    }
+
+    private StatsCache.Entry getStats(Future<StatsCache.Entry> statsFuture, long deadline) {
+        if (statsFuture == null) {
+            // as if the fetch timed out, a later render fetches them
+            Metrics.getInstance().error("execute", new RejectedExecutionException("stats fetch rejected"));
+            return null;
+        }
+        Throwable failure;
+        try {
+            return statsFuture.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // keep loading in the background, the stats will be cached for the next render
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (CancellationException e) {
+            // the plugin was disabled while the fetch was queued
+            failure = e;
         }
+        // the plugin information is rendered without the stats
+        Metrics.getInstance().error("execute", failure);
         return null;
     }
     
@@ -1,51 +1,329 @@
 package org.jenkinsci.confluence.plugins;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.CountingInputStream;
 import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
 import org.json.simple.parser.ParseException;
 
-import com.atlassian.confluence.util.http.HttpResponse;
 import com.atlassian.confluence.util.http.HttpRetrievalService;
 
 public class JenkinsRetriever {
 
-	public JSONObject retrieveUpdateCenterDetails(
+	/**
+	 * System property to load the update center from another url, e.g. a
+	 * mirror, or from a local file with a <code>file:</code> url. The document
+	 * may be gzipped (<code>update-center.json.gz</code>).
+	 */
+	public static final String UPDATE_CENTER_URL_PROPERTY = JenkinsRetriever.class
+			.getName() + ".updateCenterUrl";
+
+	public static final String DEFAULT_UPDATE_CENTER_URL = "http://updates.jenkins-ci.org/update-center.json";
+
+	/**
+	 * System property to load the stats from another url, or from a local
+	 * directory with a <code>file:</code> url. The stats of a plugin are
+	 * found under it as <code>&lt;pluginId&gt;.stats.json</code>.
+	 */
+	public static final String STATS_URL_PROPERTY = JenkinsRetriever.class
+			.getName() + ".statsUrl";
+
+	public static final String DEFAULT_STATS_URL = "http://stats.jenkins-ci.org/plugin-installation-trend/";
+
+	/**
+	 * System property to load both the update center and the stats from an
+	 * internal mirror of the Jenkins sites, an http or <code>file:</code> url
+	 * with <code>update-center.json</code> and the stats in
+	 * <code>plugin-installation-trend/</code> below it. The update center and
+	 * stats urls still take precedence.
+	 */
+	public static final String MIRROR_URL_PROPERTY = JenkinsRetriever.class
+			.getName() + ".mirrorUrl";
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Number of stats documents kept for revalidation.
+	 */
+	private static final int MAX_REVALIDATED_STATS = 2000;
+
+	/**
+	 * Time until the update center responds, its body is read (and
+	 * decompressed) while parsing.
+	 */
+	private static final Timer UPDATE_CENTER_FETCH = Metrics.getInstance()
+			.timer("updateCenter.fetch");
+
+	/**
+	 * Time to read, decompress and parse the body of the update center.
+	 */
+	private static final Timer UPDATE_CENTER_PARSE = Metrics.getInstance()
+			.timer("updateCenter.parse");
+
+	/**
+	 * Bytes transferred, compressed if the server compressed them.
+	 */
+	private static final Counter UPDATE_CENTER_BYTES = Metrics.getInstance()
+			.counter("updateCenter.bytes");
+
+	/**
+	 * Plugins added, removed or changed by newly loaded update centers.
+	 */
+	private static final Counter UPDATE_CENTER_CHANGED_PLUGINS = Metrics
+			.getInstance().counter("updateCenter.changedPlugins");
+
+	/**
+	 * Time to fetch the stats of a plugin, including their body.
+	 */
+	private static final Timer STATS_FETCH = Metrics.getInstance().timer(
+			"stats.fetch");
+
+	private static final Counter STATS_BYTES = Metrics.getInstance().counter(
+			"stats.bytes");
+
+	private static final JenkinsRetriever INSTANCE = new JenkinsRetriever();
+
+	private UpdateCenterSource updateCenterSource;
+
+	private StatsSource statsSource;
+
+	private final UpdateCenterCache updateCenterCache = new UpdateCenterCache(
+			this);
+
+	private final StatsCache statsCache = new StatsCache(this);
+
+	private final Map<String, RevalidatedStats> statsByPluginId = new LruMap<String, RevalidatedStats>(
+			MAX_REVALIDATED_STATS);
+
+	public JenkinsRetriever() {
+		String mirrorUrl = System.getProperty(MIRROR_URL_PROPERTY);
+		if (mirrorUrl != null && !mirrorUrl.endsWith("/")) {
+			mirrorUrl += "/";
+		}
+		String updateCenterUrl = System.getProperty(UPDATE_CENTER_URL_PROPERTY,
+				mirrorUrl == null ? DEFAULT_UPDATE_CENTER_URL : mirrorUrl
+						+ "update-center.json");
+		String statsUrl = System.getProperty(STATS_URL_PROPERTY,
+				mirrorUrl == null ? DEFAULT_STATS_URL : mirrorUrl
+						+ "plugin-installation-trend/");
+		if (!statsUrl.endsWith("/")) {
+			statsUrl += "/";
+		}
+		HttpSource http = new HttpSource(updateCenterUrl, statsUrl);
+		FileSource files = new FileSource(toFile(updateCenterUrl),
+				toFile(statsUrl));
+		updateCenterSource = isFile(updateCenterUrl) ? files : http;
+		statsSource = isFile(statsUrl) ? files : http;
+	}
+
+	private static boolean isFile(String url) {
+		return url.startsWith("file:");
+	}
+
+	private static File toFile(String url) {
+		return isFile(url) ? new File(URI.create(url)) : null;
+	}
+
+	/**
+	 * Gets the retriever shared by all macros, so they share its caches.
+	 */
+	public static JenkinsRetriever getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Gets the update center, served from the cache as long as it is fresh.
+	 */
+	public UpdateCenterSnapshot getUpdateCenter(
 			HttpRetrievalService httpRetrievalService) throws IOException,
 			PluginHttpException, ParseException {
-		HttpResponse response = httpRetrievalService
-				.get("http://updates.jenkins-ci.org/update-center.json");
-		if (response.getStatusCode() != 200) {
-			throw new PluginHttpException(response.getStatusCode());
+		return updateCenterCache.get(httpRetrievalService);
+	}
+
+	public UpdateCenterCache getUpdateCenterCache() {
+		return updateCenterCache;
+	}
+
+	/**
+	 * Gets the installation stats of the given plugin, served from the cache
+	 * as long as they are fresh.
+	 */
+	public StatsCache.Entry getStats(
+			HttpRetrievalService httpRetrievalService, String pluginId) {
+		return statsCache.get(httpRetrievalService, pluginId);
+	}
+
+	/**
+	 * Gets the installation stats of the given plugin if they are cached and
+	 * fresh, without loading them.
+	 * 
+	 * @return the stats, <code>null</code> if they need to be loaded
+	 */
+	public StatsCache.Entry getFreshStats(String pluginId) {
+		return statsCache.getIfFresh(pluginId);
+	}
+
+	public StatsCache getStatsCache() {
+		return statsCache;
+	}
+
+	/**
+	 * Replaces the configured source of the update center, e.g. by one
+	 * reading test fixtures.
+	 */
+	public void setUpdateCenterSource(UpdateCenterSource updateCenterSource) {
+		this.updateCenterSource = updateCenterSource;
+	}
+
+	public UpdateCenterSource getUpdateCenterSource() {
+		return updateCenterSource;
+	}
+
+	/**
+	 * Replaces the configured source of the stats.
+	 */
+	public void setStatsSource(StatsSource statsSource) {
+		this.statsSource = statsSource;
+	}
+
+	public StatsSource getStatsSource() {
+		return statsSource;
+	}
+
+	public Map<String, PluginInfo> retrieveUpdateCenterDetails(
+			HttpRetrievalService httpRetrievalService) throws IOException,
+			PluginHttpException, ParseException {
+		return retrieveUpdateCenter(httpRetrievalService, null).getPlugins();
+	}
+
+	/**
+	 * Loads the update center from its source. If a previous snapshot is
+	 * given, the source is only asked to send the document if it changed
+	 * since, otherwise the previous snapshot is revalidated without
+	 * downloading and parsing the document again. A changed document is loaded as the successor of the
+	 * previous snapshot, sharing the plugins that did not change.
+	 * 
+	 * @param previous
+	 *            the snapshot to revalidate, may be <code>null</code>
+	 */
+	public UpdateCenterSnapshot retrieveUpdateCenter(
+			HttpRetrievalService httpRetrievalService,
+			UpdateCenterSnapshot previous) throws IOException,
+			PluginHttpException, ParseException {
+		SourceDocument document;
+		long start = UPDATE_CENTER_FETCH.start();
+		try {
+			document = updateCenterSource.openUpdateCenter(
+					httpRetrievalService,
+					previous == null ? null : previous.getValidators());
+		} finally {
+			UPDATE_CENTER_FETCH.stop(start);
 		}
-		String rawUpdateCenter = IOUtils.toString(response.getResponse())
-				.trim();
-		if (rawUpdateCenter.startsWith("updateCenter.post(")) {
-			rawUpdateCenter = rawUpdateCenter.substring("updateCenter.post("
-					.length());
+		if (!document.isModified()) {
+			return previous.revalidated(System.currentTimeMillis(),
+					document.getValidators());
 		}
-		if (rawUpdateCenter.endsWith(");")) {
-			rawUpdateCenter = rawUpdateCenter.substring(0,
-					rawUpdateCenter.lastIndexOf(");"));
+		CountingInputStream in = new CountingInputStream(document.getBody());
+		Map<String, PluginInfo> plugins;
+		start = UPDATE_CENTER_PARSE.start();
+		try {
+			plugins = UpdateCenterParser.parse(decompress(in));
+		} finally {
+			IOUtils.closeQuietly(in);
+			UPDATE_CENTER_PARSE.stop(start);
 		}
-		JSONParser parser = new JSONParser();
-		JSONObject updateCenter = (JSONObject) parser.parse(rawUpdateCenter);
-		return updateCenter;
+		UPDATE_CENTER_BYTES.add(in.getByteCount());
+		if (previous == null) {
+			return new UpdateCenterSnapshot(plugins,
+					System.currentTimeMillis(), document.getValidators());
+		}
+		UpdateCenterSnapshot successor = previous.successor(plugins,
+				System.currentTimeMillis(), document.getValidators());
+		UPDATE_CENTER_CHANGED_PLUGINS.add(successor.getChanges().getChanged()
+				.size());
+		return successor;
 	}
 
+	/**
+	 * Loads the installation stats of the given plugin from their source.
+	 * Stats loaded before are revalidated and only read again if they
+	 * changed.
+	 */
 	public String retrieveStatsResponse(
 			HttpRetrievalService httpRetrievalService, String pluginId)
 			throws IOException, PluginHttpException {
-		HttpResponse statsResponse = httpRetrievalService
-				.get("http://stats.jenkins-ci.org/plugin-installation-trend/"
-						+ pluginId + ".stats.json");
-		if (statsResponse.getStatusCode() != 200) {
-			throw new PluginHttpException(statsResponse.getStatusCode());
+		RevalidatedStats previous;
+		synchronized (statsByPluginId) {
+			previous = statsByPluginId.get(pluginId);
+		}
+		SourceDocument document;
+		String rawStats;
+		long start = STATS_FETCH.start();
+		try {
+			document = statsSource.openStats(httpRetrievalService, pluginId,
+					previous == null ? null : previous.validators);
+			if (!document.isModified()) {
+				return previous.rawStats;
+			}
+			CountingInputStream in = new CountingInputStream(
+					document.getBody());
+			try {
+				rawStats = IOUtils.toString(decompress(in)).trim();
+			} finally {
+				IOUtils.closeQuietly(in);
+			}
+			STATS_BYTES.add(in.getByteCount());
+		} finally {
+			STATS_FETCH.stop(start);
+		}
+		HttpValidators validators = document.getValidators();
+		synchronized (statsByPluginId) {
+			if (validators != null) {
+				statsByPluginId.put(pluginId, new RevalidatedStats(rawStats,
+						validators));
+			} else {
+				statsByPluginId.remove(pluginId);
+			}
 		}
-		String rawStats = IOUtils.toString(statsResponse.getResponse()).trim();
 		return rawStats;
 	}
+
+	/**
+	 * Gets the given body, decompressed while it is read if it is gzipped,
+	 * whether the server compressed it for the transfer or it is a compressed
+	 * file. The body is recognized by its content rather than by the
+	 * <code>Content-Encoding</code> header, so it does not matter whether the
+	 * http client already decompressed it.
+	 */
+	static InputStream decompress(InputStream body) throws IOException {
+		BufferedInputStream in = new BufferedInputStream(body, BUFFER_SIZE);
+		in.mark(2);
+		int magic = in.read() | in.read() << 8;
+		in.reset();
+		if (magic == GZIPInputStream.GZIP_MAGIC) {
+			return new GZIPInputStream(in, BUFFER_SIZE);
+		}
+		return in;
+	}
+
+	private static class RevalidatedStats {
+
+		private final String rawStats;
+		private final HttpValidators validators;
+
+		RevalidatedStats(String rawStats, HttpValidators validators) {
+			this.rawStats = rawStats;
+			this.validators = validators;
+		}
+	}
 }
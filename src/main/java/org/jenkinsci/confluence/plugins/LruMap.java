@@ -0,0 +1,43 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+
+/**
+ * A map keeping at most a given number of entries, evicting the least recently used one first. Not thread safe.
+ */
+class LruMap<K, V> extends LinkedHashMap<K, V> {
+
+    private static final long serialVersionUID = 4711384920347120785L;
+
+    private final int maxSize;
+
+    private final Counter evictions;
+
+    LruMap(int maxSize) {
+        this(maxSize, null);
+    }
+
+    /**
+     * @param evictions
+     *            counts the evicted entries, may be <code>null</code>
+     */
+    LruMap(int maxSize, Counter evictions) {
+        super(16, 0.75f, true);
+        this.maxSize = maxSize;
+        this.evictions = evictions;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        if (size() <= maxSize) {
+            return false;
+        }
+        if (evictions != null) {
+            evictions.increment();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,211 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.json.simple.parser.ParseException;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.renderer.PageContext;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+import com.atlassian.renderer.RenderContext;
+
+/**
+ * What all plugin information macros rendering the same page share, attached to the {@link RenderContext} of the page.
+ * <p>
+ * All macros render from the update center snapshot the first one got, so a page never mixes snapshots. The first
+ * macro also starts fetching the installation stats of every plugin on the page, in one parallel wave, so the macros
+ * after it find their stats loaded or on the way instead of fetching them one after the other. The plugins on the page
+ * are found in its content, whether it is stored as wiki markup or in the XHTML storage format.
+ */
+public class PageRenderMemo {
+
+    private static final String PARAM = PageRenderMemo.class.getName();
+
+    /**
+     * A plugin information macro in wiki markup, with its parameters.
+     */
+    private static final Pattern MACRO = Pattern.compile("\\{(?:jenkins|hudson)-plugin-info(?::([^}]*))?\\}");
+
+    /**
+     * A plugin information macro in the storage format, with its parameters.
+     */
+    private static final Pattern STORAGE_MACRO = Pattern.compile(
+            "<ac:(structured-macro|macro)\\s[^>]*?ac:name=\"(?:jenkins|hudson)-plugin-info\"[^>]*?(?:/>|>(.*?)</ac:\\1>)",
+            Pattern.DOTALL);
+
+    /**
+     * A parameter of a macro in the storage format, the default one has no name.
+     */
+    private static final Pattern STORAGE_PARAMETER = Pattern.compile(
+            "<ac:parameter\\s+ac:name=\"([^\"]*)\"\\s*>([^<]*)</ac:parameter>");
+
+    private final Set<String> pluginIdsOnPage;
+
+    private boolean prefetched;
+
+    private UpdateCenterSnapshot updateCenter;
+
+    private final Map<String, Future<StatsCache.Entry>> stats = new HashMap<String, Future<StatsCache.Entry>>();
+
+    PageRenderMemo(Set<String> pluginIdsOnPage) {
+        this.pluginIdsOnPage = pluginIdsOnPage;
+    }
+
+    /**
+     * @return the memo of the page rendered with the given context, attached to it on first use
+     */
+    public static PageRenderMemo of(RenderContext renderContext) {
+        PageRenderMemo memo = attached(renderContext);
+        if (memo != null) {
+            return memo;
+        }
+        // the page is scanned outside the lock, concurrent first macros of a page may both scan it
+        PageRenderMemo scanned = new PageRenderMemo(pluginIdsOnPage(renderContext));
+        synchronized (renderContext) {
+            memo = (PageRenderMemo) renderContext.getParam(PARAM);
+            if (memo == null) {
+                memo = scanned;
+                renderContext.addParam(PARAM, memo);
+            }
+            return memo;
+        }
+    }
+
+    private static PageRenderMemo attached(RenderContext renderContext) {
+        synchronized (renderContext) {
+            return (PageRenderMemo) renderContext.getParam(PARAM);
+        }
+    }
+
+    private static Set<String> pluginIdsOnPage(RenderContext renderContext) {
+        if (renderContext instanceof PageContext) {
+            ContentEntityObject page = ((PageContext) renderContext).getEntity();
+            if (page != null && page.getContent() != null) {
+                return pluginIdsIn(page.getContent());
+            }
+        }
+        return new LinkedHashSet<String>();
+    }
+
+    /**
+     * @return the ids of the plugins shown by the plugin information macros in the given wiki markup or storage format
+     *         content, in page order
+     */
+    static Set<String> pluginIdsIn(String content) {
+        Set<String> pluginIds = new LinkedHashSet<String>();
+        Matcher macro = MACRO.matcher(content);
+        while (macro.find()) {
+            if (macro.group(1) == null) {
+                continue;
+            }
+            String positional = null;
+            String named = null;
+            for (String parameter : macro.group(1).split("\\|")) {
+                int equals = parameter.indexOf('=');
+                if (equals < 0) {
+                    if (positional == null) {
+                        positional = parameter.trim();
+                    }
+                } else if ("pluginId".equals(parameter.substring(0, equals).trim())) {
+                    named = parameter.substring(equals + 1).trim();
+                }
+            }
+            addPluginId(pluginIds, named, positional);
+        }
+        Matcher storageMacro = STORAGE_MACRO.matcher(content);
+        while (storageMacro.find()) {
+            if (storageMacro.group(2) == null) {
+                continue;
+            }
+            String positional = null;
+            String named = null;
+            Matcher parameter = STORAGE_PARAMETER.matcher(storageMacro.group(2));
+            while (parameter.find()) {
+                String value = StringEscapeUtils.unescapeXml(parameter.group(2)).trim();
+                if ("pluginId".equals(parameter.group(1))) {
+                    named = value;
+                } else if (parameter.group(1).length() == 0 || "0".equals(parameter.group(1))) {
+                    positional = value;
+                }
+            }
+            addPluginId(pluginIds, named, positional);
+        }
+        return pluginIds;
+    }
+
+    /**
+     * Adds the plugin id of a macro, given by its <code>pluginId</code> parameter or else by its default one.
+     */
+    private static void addPluginId(Set<String> pluginIds, String named, String positional) {
+        String pluginId = named != null ? named : positional;
+        if (pluginId != null && pluginId.length() > 0) {
+            pluginIds.add(pluginId);
+        }
+    }
+
+    /**
+     * Gets the update center the macros of the page render from: the one the first of them got.
+     */
+    public synchronized UpdateCenterSnapshot getUpdateCenter(JenkinsRetriever jenkinsRetriever,
+            HttpRetrievalService httpRetrievalService) throws IOException, PluginHttpException, ParseException {
+        if (updateCenter == null) {
+            updateCenter = jenkinsRetriever.getUpdateCenter(httpRetrievalService);
+        }
+        return updateCenter;
+    }
+
+    /**
+     * Gets the stats of the given plugin fetched for this page, fetching them if they were not. The first call also
+     * fetches the stats of all other plugins on the page. Claiming the plugins and storing their fetches is a single
+     * step, so concurrent macros never fetch the same stats twice. A fetch the fetcher rejects is not stored and ends
+     * the wave: the plugins left out are fetched by their own macros.
+     *
+     * @return the fetch, <code>null</code> if it was rejected
+     */
+    public synchronized Future<StatsCache.Entry> fetchStats(String pluginId, StatsFetcher fetcher) {
+        Set<String> pluginIds = new LinkedHashSet<String>();
+        pluginIds.add(pluginId);
+        if (!prefetched) {
+            prefetched = true;
+            pluginIds.addAll(pluginIdsOnPage);
+        }
+        for (String fetched : pluginIds) {
+            if (stats.containsKey(fetched)) {
+                continue;
+            }
+            Future<StatsCache.Entry> fetch = fetcher.fetch(fetched);
+            if (fetch == null) {
+                break;
+            }
+            stats.put(fetched, fetch);
+        }
+        return stats.get(pluginId);
+    }
+
+    /**
+     * @return the stats of the given plugin fetched for this page, <code>null</code> if they were not fetched yet
+     */
+    public synchronized Future<StatsCache.Entry> getStats(String pluginId) {
+        return stats.get(pluginId);
+    }
+
+    /**
+     * Starts fetching the stats of a plugin.
+     */
+    public interface StatsFetcher {
+
+        /**
+         * @return the fetch, <code>null</code> if it was rejected
+         */
+        Future<StatsCache.Entry> fetch(String pluginId);
+    }
+}
@@ -0,0 +1,229 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The (immutable) update center information of a plugin, limited to what the macros show. Properties missing in the
+ * update center are <code>null</code>.
+ * <p>
+ * Plugin information is a value: two instances are equal if all their properties are, so an unchanged plugin can be
+ * recognized when a new update center is loaded.
+ */
+public class PluginInfo {
+
+    private final String name;
+    private final String version;
+    private final String previousVersion;
+    private final String buildDate;
+    private final String releaseTimestamp;
+    private final String previousTimestamp;
+    private final String requiredCore;
+    private final String scm;
+    private final String wiki;
+    private final List<Dependency> dependencies;
+    private final List<Developer> developers;
+
+    public PluginInfo(String name, String version, String previousVersion, String buildDate, String releaseTimestamp,
+            String previousTimestamp, String requiredCore, String scm, String wiki, Dependency[] dependencies,
+            Developer[] developers) {
+        this.name = name;
+        this.version = version;
+        this.previousVersion = previousVersion;
+        this.buildDate = buildDate;
+        this.releaseTimestamp = releaseTimestamp;
+        this.previousTimestamp = previousTimestamp;
+        this.requiredCore = requiredCore;
+        this.scm = scm;
+        this.wiki = wiki;
+        this.dependencies = asList(dependencies);
+        this.developers = asList(developers);
+    }
+
+    private static <T> List<T> asList(T[] values) {
+        if (values == null || values.length == 0) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(values.clone()));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getPreviousVersion() {
+        return previousVersion;
+    }
+
+    public String getBuildDate() {
+        return buildDate;
+    }
+
+    public String getReleaseTimestamp() {
+        return releaseTimestamp;
+    }
+
+    public String getPreviousTimestamp() {
+        return previousTimestamp;
+    }
+
+    public String getRequiredCore() {
+        return requiredCore;
+    }
+
+    public String getScm() {
+        return scm;
+    }
+
+    public String getWiki() {
+        return wiki;
+    }
+
+    /**
+     * @return the (unmodifiable) dependencies, never <code>null</code>
+     */
+    public List<Dependency> getDependencies() {
+        return dependencies;
+    }
+
+    /**
+     * @return the (unmodifiable) developers, never <code>null</code>
+     */
+    public List<Developer> getDevelopers() {
+        return developers;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PluginInfo)) {
+            return false;
+        }
+        PluginInfo other = (PluginInfo) obj;
+        // the properties most likely to differ first
+        return equal(version, other.version) && equal(releaseTimestamp, other.releaseTimestamp)
+                && equal(name, other.name) && equal(previousVersion, other.previousVersion)
+                && equal(buildDate, other.buildDate) && equal(previousTimestamp, other.previousTimestamp)
+                && equal(requiredCore, other.requiredCore) && equal(scm, other.scm) && equal(wiki, other.wiki)
+                && dependencies.equals(other.dependencies) && developers.equals(other.developers);
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = hashCode(name);
+        hash = 31 * hash + hashCode(version);
+        hash = 31 * hash + hashCode(releaseTimestamp);
+        return hash;
+    }
+
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
+    private static int hashCode(Object o) {
+        return o == null ? 0 : o.hashCode();
+    }
+
+    /**
+     * A plugin another plugin depends on.
+     */
+    public static class Dependency {
+
+        private final String name;
+        private final String version;
+        private final boolean optional;
+
+        public Dependency(String name, String version, boolean optional) {
+            this.name = name;
+            this.version = version;
+            this.optional = optional;
+        }
+
+        /**
+         * @return the id of the plugin depended on
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the minimum version required
+         */
+        public String getVersion() {
+            return version;
+        }
+
+        public boolean isOptional() {
+            return optional;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Dependency)) {
+                return false;
+            }
+            Dependency other = (Dependency) obj;
+            return optional == other.optional && equal(name, other.name) && equal(version, other.version);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * PluginInfo.hashCode(name) + PluginInfo.hashCode(version)) + (optional ? 1 : 0);
+        }
+    }
+
+    /**
+     * A developer maintaining a plugin.
+     */
+    public static class Developer {
+
+        private final String name;
+        private final String developerId;
+        private final String email;
+
+        public Developer(String name, String developerId, String email) {
+            this.name = name;
+            this.developerId = developerId;
+            this.email = email;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getDeveloperId() {
+            return developerId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Developer)) {
+                return false;
+            }
+            Developer other = (Developer) obj;
+            return equal(developerId, other.developerId) && equal(name, other.name) && equal(email, other.email);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * PluginInfo.hashCode(name) + PluginInfo.hashCode(developerId)) + PluginInfo.hashCode(email);
+        }
+    }
+}
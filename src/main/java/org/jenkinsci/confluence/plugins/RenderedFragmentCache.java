@@ -0,0 +1,233 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+
+import com.atlassian.confluence.renderer.PageContext;
+import com.atlassian.renderer.RenderContext;
+
+/**
+ * Keeps the final output of the most recently rendered plugin information boxes, so repeated views of a plugin page
+ * don't render the same markup again.
+ * <p>
+ * Entries are keyed by all macro parameters, what the output depends on of the render context (space, output type
+ * and site root) and the ids of the update center and stats snapshots they were rendered from, so a changed snapshot
+ * never hits an old entry, and a fragment is never replayed into another space or export. When the cache advances to a newer update center, the entries
+ * of plugins it did not affect are carried over to it and all others are dropped.
+ */
+public class RenderedFragmentCache {
+
+    /**
+     * System property to override the default maximum number of cached fragments.
+     */
+    public static final String MAX_SIZE_PROPERTY = RenderedFragmentCache.class.getName() + ".maxSize";
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static final Counter HITS = Metrics.getInstance().counter("fragmentCache.hits");
+
+    private static final Counter MISSES = Metrics.getInstance().counter("fragmentCache.misses");
+
+    private static final Counter EVICTIONS = Metrics.getInstance().counter("fragmentCache.evictions");
+
+    private static final Counter INVALIDATIONS = Metrics.getInstance().counter("fragmentCache.invalidations");
+
+    private static final RenderedFragmentCache INSTANCE = new RenderedFragmentCache(Integer.getInteger(
+            MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+
+    private final Map<Key, String> fragments;
+
+    private long updateCenterId;
+
+    public RenderedFragmentCache(int maxSize) {
+        fragments = new LruMap<Key, String>(maxSize, EVICTIONS);
+    }
+
+    /**
+     * @return the cache shared by all macros
+     */
+    public static RenderedFragmentCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the fragment rendered for the given key, <code>null</code> if there is none
+     */
+    public synchronized String get(Key key) {
+        String fragment = fragments.get(key);
+        (fragment == null ? MISSES : HITS).increment();
+        return fragment;
+    }
+
+    /**
+     * Caches a rendered fragment, unless it was rendered from an update center older than the newest one seen.
+     */
+    public synchronized void put(Key key, String fragment) {
+        if (key.updateCenterId < updateCenterId) {
+            return;
+        }
+        if (key.updateCenterId > updateCenterId) {
+            fragments.clear();
+            updateCenterId = key.updateCenterId;
+        }
+        fragments.put(key, fragment);
+    }
+
+    /**
+     * Moves on to a newer update center. If it succeeded the one the cached fragments were rendered from, the fragments
+     * of plugins it did not affect are kept for it, otherwise all fragments are dropped.
+     */
+    public synchronized void advance(UpdateCenterSnapshot updateCenter) {
+        if (updateCenter.getId() <= updateCenterId) {
+            return;
+        }
+        ChangeSet changes = updateCenter.getChanges();
+        List<Map.Entry<Key, String>> kept = new ArrayList<Map.Entry<Key, String>>();
+        if (changes != null && changes.getPreviousId() == updateCenterId) {
+            // in least recently used order, so putting them back keeps it
+            for (Map.Entry<Key, String> entry : fragments.entrySet()) {
+                Key key = entry.getKey();
+                if (key.updateCenterId == updateCenterId && key.pluginId != null
+                        && !changes.isAffected(key.pluginId)) {
+                    kept.add(entry);
+                }
+            }
+        }
+        INVALIDATIONS.add(fragments.size() - kept.size());
+        fragments.clear();
+        for (Map.Entry<Key, String> entry : kept) {
+            fragments.put(new Key(entry.getKey(), updateCenter.getId()), entry.getValue());
+        }
+        updateCenterId = updateCenter.getId();
+    }
+
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    public synchronized void clear() {
+        fragments.clear();
+    }
+
+    /**
+     * Identifies a rendered fragment: everything the output depends on.
+     */
+    public static class Key {
+
+        private final String pluginId;
+        private final Map<?, ?> parameters;
+        private final String spaceKey;
+        private final String outputType;
+        private final String siteRoot;
+        private final long updateCenterId;
+        private final long statsId;
+
+        /**
+         * Creates the key of a fragment that is dropped whenever the update center changes.
+         *
+         * @param parameters
+         *            the macro parameters, they are copied
+         * @param updateCenterId
+         *            the id of the update center snapshot the plugin information comes from
+         * @param statsId
+         *            the id of the installation stats shown, <code>0</code> if there are none
+         */
+        public Key(Map<?, ?> parameters, long updateCenterId, long statsId) {
+            this(null, parameters, updateCenterId, statsId);
+        }
+
+        /**
+         * @param pluginId
+         *            the plugin the fragment shows, it is kept as long as update centers don't affect the plugin,
+         *            <code>null</code> to drop it whenever the update center changes
+         * @param parameters
+         *            the macro parameters, they are copied
+         * @param updateCenterId
+         *            the id of the update center snapshot the plugin information comes from
+         * @param statsId
+         *            the id of the installation stats shown, <code>0</code> if there are none
+         */
+        public Key(String pluginId, Map<?, ?> parameters, long updateCenterId, long statsId) {
+            this(pluginId, parameters, null, updateCenterId, statsId);
+        }
+
+        /**
+         * @param pluginId
+         *            the plugin the fragment shows, it is kept as long as update centers don't affect the plugin,
+         *            <code>null</code> to drop it whenever the update center changes
+         * @param parameters
+         *            the macro parameters, they are copied
+         * @param renderContext
+         *            the context the fragment is rendered in, its space key, output type and site root are part of the
+         *            key, <code>null</code> if the output does not depend on it
+         * @param updateCenterId
+         *            the id of the update center snapshot the plugin information comes from
+         * @param statsId
+         *            the id of the installation stats shown, <code>0</code> if there are none
+         */
+        public Key(String pluginId, Map<?, ?> parameters, RenderContext renderContext, long updateCenterId,
+                long statsId) {
+            this.pluginId = pluginId;
+            this.parameters = new HashMap<Object, Object>(parameters);
+            if (renderContext != null) {
+                // links relative to the space and the markup of exports depend on them
+                spaceKey = renderContext instanceof PageContext ? ((PageContext) renderContext).getSpaceKey() : null;
+                outputType = renderContext.getOutputType();
+                siteRoot = renderContext.getSiteRoot();
+            } else {
+                spaceKey = null;
+                outputType = null;
+                siteRoot = null;
+            }
+            this.updateCenterId = updateCenterId;
+            this.statsId = statsId;
+        }
+
+        /**
+         * Carries a key over to a newer update center, sharing the parameters.
+         */
+        private Key(Key key, long updateCenterId) {
+            this.pluginId = key.pluginId;
+            this.parameters = key.parameters;
+            this.spaceKey = key.spaceKey;
+            this.outputType = key.outputType;
+            this.siteRoot = key.siteRoot;
+            this.updateCenterId = updateCenterId;
+            this.statsId = key.statsId;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return updateCenterId == other.updateCenterId && statsId == other.statsId
+                    && equal(pluginId, other.pluginId) && equal(spaceKey, other.spaceKey)
+                    && equal(outputType, other.outputType) && equal(siteRoot, other.siteRoot)
+                    && parameters.equals(other.parameters);
+        }
+
+        private static boolean equal(String s1, String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = parameters.hashCode();
+            hash = 31 * hash + (spaceKey == null ? 0 : spaceKey.hashCode());
+            hash = 31 * hash + (outputType == null ? 0 : outputType.hashCode());
+            hash = 31 * hash + (int) (updateCenterId ^ (updateCenterId >>> 32));
+            hash = 31 * hash + (int) (statsId ^ (statsId >>> 32));
+            return hash;
+        }
+    }
+}
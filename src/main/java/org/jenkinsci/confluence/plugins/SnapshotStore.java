@@ -0,0 +1,445 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.zip.CRC32;
+
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
+
+/**
+ * Persists the last loaded update center to a compact binary file, so it can be served right after a restart, before
+ * the update center has been fetched again.
+ * <p>
+ * The file is read into memory when loaded, rather than mapped: a mapping keeps the file open until it is garbage
+ * collected, which prevents replacing the file on some platforms. Only the plugin ids are decoded up front, each plugin
+ * (and each string it refers to) is decoded on first access. Strings are stored once and referred to by index, so repeated values
+ * (versions, dependency names, ...) stay shared.
+ * <p>
+ * Layout, all numbers big-endian:
+ *
+ * <pre>
+ * header:  magic (int), format version (int), CRC32 of everything after the header (long)
+ * body:    timestamp (long), ETag (ref), Last-Modified (ref)
+ *          string count (int), string offsets (int each)
+ *          plugin count (int), per plugin: id (ref), record offset (int)
+ *          strings: length (int), UTF-8 bytes
+ *          records: 9 properties (ref each), dependency count (int), per dependency: name (ref), version (ref),
+ *                   optional (byte), developer count (int), per developer: name, id, email (ref each)
+ * </pre>
+ *
+ * A ref is the index of a string, <code>-1</code> for <code>null</code>.
+ */
+public class SnapshotStore {
+
+    private static final int MAGIC = 0x4A504931;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 16;
+
+    private static final int NULL = -1;
+
+    private static final Timer LOAD = Metrics.getInstance().timer("snapshotStore.load");
+
+    private static final Timer SAVE = Metrics.getInstance().timer("snapshotStore.save");
+
+    private final File file;
+
+    public SnapshotStore(File file) {
+        this.file = file;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Loads the persisted update center. It keeps its original timestamp and validators, so it is refreshed (or
+     * revalidated) as soon as it would have been without the restart.
+     *
+     * @return the update center, <code>null</code> if none was persisted or the file can't be read
+     */
+    public UpdateCenterSnapshot load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        long start = LOAD.start();
+        try {
+            ByteBuffer buffer = read();
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT_VERSION || buffer.getLong(8) != checksum(buffer)) {
+                return null;
+            }
+            PersistedPlugins plugins = new PersistedPlugins(buffer);
+            String etag = plugins.string(buffer.getInt(HEADER_SIZE + 8));
+            String lastModified = plugins.string(buffer.getInt(HEADER_SIZE + 12));
+            HttpValidators validators = etag == null && lastModified == null ? null : new HttpValidators(etag,
+                    lastModified);
+            return new UpdateCenterSnapshot(plugins, buffer.getLong(HEADER_SIZE), validators);
+        } catch (IOException e) {
+            Metrics.getInstance().error("snapshotStore", e);
+            return null;
+        } catch (RuntimeException e) {
+            // offsets pointing out of the file
+            Metrics.getInstance().error("snapshotStore", e);
+            return null;
+        } finally {
+            LOAD.stop(start);
+        }
+    }
+
+    private ByteBuffer read() throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            long length = in.length();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("truncated snapshot " + file);
+            }
+            byte[] bytes = new byte[(int) length];
+            in.readFully(bytes);
+            return ByteBuffer.wrap(bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[8192];
+        ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        while (body.hasRemaining()) {
+            int length = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Persists the given update center, replacing the one persisted before. The file is written next to the old one
+     * and then renamed, so a crash never leaves a partial file behind.
+     */
+    public void save(UpdateCenterSnapshot snapshot) throws IOException {
+        long start = SAVE.start();
+        try {
+            byte[] body = encode(snapshot);
+            CRC32 crc = new CRC32();
+            crc.update(body);
+
+            File directory = file.getAbsoluteFile().getParentFile();
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("cannot create " + directory);
+            }
+            File temp = new File(directory, file.getName() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(crc.getValue());
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                // some platforms don't rename over existing files
+                file.delete();
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                    throw new IOException("cannot replace " + file);
+                }
+            }
+        } finally {
+            SAVE.stop(start);
+        }
+    }
+
+    private static byte[] encode(UpdateCenterSnapshot snapshot) throws IOException {
+        Map<String, PluginInfo> plugins = snapshot.getPlugins();
+        StringTable strings = new StringTable();
+        HttpValidators validators = snapshot.getValidators();
+        int etag = strings.ref(validators == null ? null : validators.getEtag());
+        int lastModified = strings.ref(validators == null ? null : validators.getLastModified());
+
+        // records first, they collect the strings
+        ByteArrayOutputStream recordBytes = new ByteArrayOutputStream();
+        DataOutputStream records = new DataOutputStream(recordBytes);
+        int[] ids = new int[plugins.size()];
+        int[] recordOffsets = new int[plugins.size()];
+        int i = 0;
+        for (Map.Entry<String, PluginInfo> entry : plugins.entrySet()) {
+            ids[i] = strings.ref(entry.getKey());
+            recordOffsets[i] = records.size();
+            writeRecord(records, strings, entry.getValue());
+            i++;
+        }
+        records.flush();
+
+        int stringsStart = HEADER_SIZE + 16 + 4 + 4 * strings.size() + 4 + 8 * ids.length;
+        int recordsStart = stringsStart + strings.bytes.size();
+
+        ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(recordsStart + recordBytes.size());
+        DataOutputStream body = new DataOutputStream(bodyBytes);
+        body.writeLong(snapshot.getTimestamp());
+        body.writeInt(etag);
+        body.writeInt(lastModified);
+        body.writeInt(strings.size());
+        for (int s = 0; s < strings.size(); s++) {
+            body.writeInt(stringsStart + strings.offsets[s]);
+        }
+        body.writeInt(ids.length);
+        for (int p = 0; p < ids.length; p++) {
+            body.writeInt(ids[p]);
+            body.writeInt(recordsStart + recordOffsets[p]);
+        }
+        strings.bytes.writeTo(body);
+        recordBytes.writeTo(body);
+        body.flush();
+        return bodyBytes.toByteArray();
+    }
+
+    private static void writeRecord(DataOutputStream out, StringTable strings, PluginInfo plugin) throws IOException {
+        out.writeInt(strings.ref(plugin.getName()));
+        out.writeInt(strings.ref(plugin.getVersion()));
+        out.writeInt(strings.ref(plugin.getPreviousVersion()));
+        out.writeInt(strings.ref(plugin.getBuildDate()));
+        out.writeInt(strings.ref(plugin.getReleaseTimestamp()));
+        out.writeInt(strings.ref(plugin.getPreviousTimestamp()));
+        out.writeInt(strings.ref(plugin.getRequiredCore()));
+        out.writeInt(strings.ref(plugin.getScm()));
+        out.writeInt(strings.ref(plugin.getWiki()));
+        List<PluginInfo.Dependency> dependencies = plugin.getDependencies();
+        out.writeInt(dependencies.size());
+        for (PluginInfo.Dependency dependency : dependencies) {
+            out.writeInt(strings.ref(dependency.getName()));
+            out.writeInt(strings.ref(dependency.getVersion()));
+            out.writeByte(dependency.isOptional() ? 1 : 0);
+        }
+        List<PluginInfo.Developer> developers = plugin.getDevelopers();
+        out.writeInt(developers.size());
+        for (PluginInfo.Developer developer : developers) {
+            out.writeInt(strings.ref(developer.getName()));
+            out.writeInt(strings.ref(developer.getDeveloperId()));
+            out.writeInt(strings.ref(developer.getEmail()));
+        }
+    }
+
+    /**
+     * Collects the distinct strings while encoding, each is written once.
+     */
+    private static class StringTable {
+
+        private final Map<String, Integer> refs = new HashMap<String, Integer>();
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        private int[] offsets = new int[256];
+
+        int ref(String value) throws IOException {
+            if (value == null) {
+                return NULL;
+            }
+            Integer ref = refs.get(value);
+            if (ref == null) {
+                ref = refs.size();
+                refs.put(value, ref);
+                if (ref == offsets.length) {
+                    int[] grown = new int[offsets.length * 2];
+                    System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                    offsets = grown;
+                }
+                offsets[ref] = bytes.size();
+                byte[] utf8 = value.getBytes("UTF-8");
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(utf8.length);
+                out.write(utf8);
+                out.flush();
+            }
+            return ref;
+        }
+
+        int size() {
+            return refs.size();
+        }
+    }
+
+    /**
+     * The plugins of a loaded snapshot file, decoded on first access. Unmodifiable.
+     */
+    private static class PersistedPlugins extends AbstractMap<String, PluginInfo> {
+
+        private final ByteBuffer buffer;
+
+        private final int stringOffsets;
+
+        private final AtomicReferenceArray<String> strings;
+
+        /**
+         * Index of each plugin, by id.
+         */
+        private final Map<String, Integer> index;
+
+        private final String[] ids;
+
+        private final int[] recordOffsets;
+
+        private final AtomicReferenceArray<PluginInfo> decoded;
+
+        PersistedPlugins(ByteBuffer buffer) {
+            this.buffer = buffer;
+            int position = HEADER_SIZE + 16;
+            int stringCount = buffer.getInt(position);
+            stringOffsets = position + 4;
+            strings = new AtomicReferenceArray<String>(stringCount);
+            position = stringOffsets + 4 * stringCount;
+            int pluginCount = buffer.getInt(position);
+            position += 4;
+            index = new HashMap<String, Integer>(pluginCount * 4 / 3 + 1);
+            ids = new String[pluginCount];
+            recordOffsets = new int[pluginCount];
+            decoded = new AtomicReferenceArray<PluginInfo>(pluginCount);
+            for (int i = 0; i < pluginCount; i++) {
+                ids[i] = string(buffer.getInt(position));
+                recordOffsets[i] = buffer.getInt(position + 4);
+                index.put(ids[i], i);
+                position += 8;
+            }
+        }
+
+        @Override
+        public PluginInfo get(Object key) {
+            Integer i = index.get(key);
+            return i == null ? null : plugin(i);
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return index.containsKey(key);
+        }
+
+        @Override
+        public int size() {
+            return ids.length;
+        }
+
+        @Override
+        public Set<Map.Entry<String, PluginInfo>> entrySet() {
+            return new AbstractSet<Map.Entry<String, PluginInfo>>() {
+                @Override
+                public Iterator<Map.Entry<String, PluginInfo>> iterator() {
+                    return new Iterator<Map.Entry<String, PluginInfo>>() {
+                        private int next;
+
+                        public boolean hasNext() {
+                            return next < ids.length;
+                        }
+
+                        public Map.Entry<String, PluginInfo> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final int i = next++;
+                            return new Map.Entry<String, PluginInfo>() {
+                                public String getKey() {
+                                    return ids[i];
+                                }
+
+                                public PluginInfo getValue() {
+                                    return plugin(i);
+                                }
+
+                                public PluginInfo setValue(PluginInfo value) {
+                                    throw new UnsupportedOperationException();
+                                }
+                            };
+                        }
+
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return ids.length;
+                }
+            };
+        }
+
+        /**
+         * Concurrent first accesses may both decode the plugin, only the first decoded one is kept.
+         */
+        private PluginInfo plugin(int i) {
+            PluginInfo plugin = decoded.get(i);
+            if (plugin == null) {
+                decoded.compareAndSet(i, null, decodePlugin(recordOffsets[i]));
+                plugin = decoded.get(i);
+            }
+            return plugin;
+        }
+
+        private PluginInfo decodePlugin(int position) {
+            String[] properties = new String[9];
+            for (int p = 0; p < properties.length; p++) {
+                properties[p] = string(buffer.getInt(position));
+                position += 4;
+            }
+            PluginInfo.Dependency[] dependencies = new PluginInfo.Dependency[buffer.getInt(position)];
+            position += 4;
+            for (int d = 0; d < dependencies.length; d++) {
+                dependencies[d] = new PluginInfo.Dependency(string(buffer.getInt(position)),
+                        string(buffer.getInt(position + 4)), buffer.get(position + 8) != 0);
+                position += 9;
+            }
+            PluginInfo.Developer[] developers = new PluginInfo.Developer[buffer.getInt(position)];
+            position += 4;
+            for (int d = 0; d < developers.length; d++) {
+                developers[d] = new PluginInfo.Developer(string(buffer.getInt(position)),
+                        string(buffer.getInt(position + 4)), string(buffer.getInt(position + 8)));
+                position += 12;
+            }
+            return new PluginInfo(properties[0], properties[1], properties[2], properties[3], properties[4],
+                    properties[5], properties[6], properties[7], properties[8], dependencies, developers);
+        }
+
+        String string(int ref) {
+            if (ref == NULL) {
+                return null;
+            }
+            String value = strings.get(ref);
+            if (value == null) {
+                strings.compareAndSet(ref, null, decodeString(buffer.getInt(stringOffsets + 4 * ref)));
+                value = strings.get(ref);
+            }
+            return value;
+        }
+
+        private String decodeString(int position) {
+            byte[] utf8 = new byte[buffer.getInt(position)];
+            ByteBuffer bytes = buffer.duplicate();
+            bytes.position(position + 4);
+            bytes.get(utf8);
+            try {
+                return new String(utf8, "UTF-8");
+            } catch (IOException e) {
+                // UTF-8 is always supported
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.InputStream;
+
+/**
+ * A document opened from a source, or the confirmation that it did not change since it was loaded before.
+ */
+public class SourceDocument {
+
+    private final InputStream body;
+    private final HttpValidators validators;
+
+    private SourceDocument(InputStream body, HttpValidators validators) {
+        this.body = body;
+        this.validators = validators;
+    }
+
+    /**
+     * @param body
+     *            the document, possibly gzipped, the reader closes it
+     * @param validators
+     *            the validators to load the document again with, <code>null</code> if there are none
+     */
+    public static SourceDocument modified(InputStream body, HttpValidators validators) {
+        if (body == null) {
+            throw new IllegalArgumentException("body must not be null");
+        }
+        return new SourceDocument(body, validators);
+    }
+
+    /**
+     * @param validators
+     *            the validators sent along the confirmation, <code>null</code> to keep the current ones
+     */
+    public static SourceDocument notModified(HttpValidators validators) {
+        return new SourceDocument(null, validators);
+    }
+
+    /**
+     * @return whether the document changed, otherwise it has no body
+     */
+    public boolean isModified() {
+        return body != null;
+    }
+
+    public InputStream getBody() {
+        return body;
+    }
+
+    public HttpValidators getValidators() {
+        return validators;
+    }
+}
@@ -0,0 +1,364 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Keeps the parsed installation stats of the most recently shown plugins.
+ * <p>
+ * Stats only change once a month, so they are kept for a long time to live. Plugins without stats (404) and failed
+ * loads are remembered as well, for a short time to live, so the stats server is not asked again on every render.
+ * A failed reload of stats that were loaded before keeps serving them, and is retried after {@link #RETRY_DELAY}.
+ * Concurrent requests for the same plugin share a single load.
+ */
+public class StatsCache {
+
+    /**
+     * System property to override the default time to live (in millis) of loaded stats.
+     */
+    public static final String TTL_PROPERTY = StatsCache.class.getName() + ".ttl";
+
+    /**
+     * System property to override the default time to live (in millis) of missing stats and failures.
+     */
+    public static final String FAILURE_TTL_PROPERTY = StatsCache.class.getName() + ".failureTtl";
+
+    /**
+     * System property to override the default maximum number of plugins kept.
+     */
+    public static final String MAX_SIZE_PROPERTY = StatsCache.class.getName() + ".maxSize";
+
+    public static final long DEFAULT_TTL = 12 * 60 * 60 * 1000L;
+
+    public static final long DEFAULT_FAILURE_TTL = 10 * 60 * 1000L;
+
+    public static final int DEFAULT_MAX_SIZE = 2000;
+
+    /**
+     * Minimum time (in millis) between a failed reload of loaded stats and the next attempt.
+     */
+    public static final long RETRY_DELAY = 60 * 1000L;
+
+    private static final int NOT_FOUND = 404;
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private static final Counter HITS = Metrics.getInstance().counter("statsCache.hits");
+
+    private static final Counter MISSES = Metrics.getInstance().counter("statsCache.misses");
+
+    private static final Counter EVICTIONS = Metrics.getInstance().counter("statsCache.evictions");
+
+    private static final Timer PARSE = Metrics.getInstance().timer("stats.parse");
+
+    private final JenkinsRetriever jenkinsRetriever;
+
+    private final Map<String, Slot> slots;
+
+    private volatile long ttl = Long.getLong(TTL_PROPERTY, DEFAULT_TTL);
+
+    private volatile long failureTtl = Long.getLong(FAILURE_TTL_PROPERTY, DEFAULT_FAILURE_TTL);
+
+    public StatsCache(JenkinsRetriever jenkinsRetriever) {
+        this(jenkinsRetriever, Integer.getInteger(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE));
+    }
+
+    public StatsCache(JenkinsRetriever jenkinsRetriever, int maxSize) {
+        this.jenkinsRetriever = jenkinsRetriever;
+        this.slots = new LruMap<String, Slot>(maxSize, EVICTIONS);
+    }
+
+    /**
+     * Gets the stats of the given plugin, loading them if they are not cached or expired.
+     *
+     * @return the stats, never <code>null</code>
+     */
+    public Entry get(HttpRetrievalService httpRetrievalService, String pluginId) {
+        return get(httpRetrievalService, pluginId, 0, true);
+    }
+
+    /**
+     * Gets the stats of the given plugin if they are cached and not expired, without loading them. A hit counts as a
+     * view of the plugin, a miss doesn't: it is counted by the load that follows.
+     *
+     * @return the stats, <code>null</code> if they need to be loaded
+     */
+    public Entry getIfFresh(String pluginId) {
+        synchronized (slots) {
+            Slot slot = slots.get(pluginId);
+            if (slot == null || slot.entry == null || slot.entry.expires <= System.currentTimeMillis()) {
+                return null;
+            }
+            slot.views++;
+            HITS.increment();
+            return slot.entry;
+        }
+    }
+
+    /**
+     * Loads the stats of the given plugin if they are not cached or expire within the given time, so renders during
+     * that time are served from the cache. Unlike {@link #get(HttpRetrievalService, String)}, this does not count as a
+     * view of the plugin.
+     *
+     * @param horizon
+     *            the time (in millis) the cached stats must stay valid
+     * @return the stats, never <code>null</code>
+     */
+    public Entry prefetch(HttpRetrievalService httpRetrievalService, String pluginId, long horizon) {
+        return get(httpRetrievalService, pluginId, horizon, false);
+    }
+
+    private Entry get(HttpRetrievalService httpRetrievalService, String pluginId, long horizon, boolean view) {
+        FutureTask<Entry> task;
+        boolean load = false;
+        synchronized (slots) {
+            Slot slot = slots.get(pluginId);
+            if (slot == null) {
+                slot = new Slot();
+                slots.put(pluginId, slot);
+            }
+            if (view) {
+                slot.views++;
+            }
+            Entry entry = slot.entry;
+            if (entry != null && entry.expires > System.currentTimeMillis() + horizon) {
+                if (view) {
+                    HITS.increment();
+                }
+                return entry;
+            }
+            if (view) {
+                MISSES.increment();
+            }
+            if (slot.loading == null) {
+                slot.loading = newLoadTask(httpRetrievalService, pluginId, slot, entry);
+                load = true;
+            }
+            task = slot.loading;
+        }
+        if (load) {
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Entry(null, null, 0, e);
+        } catch (ExecutionException e) {
+            // loads don't throw exceptions, only errors
+            throw (Error) e.getCause();
+        }
+    }
+
+    /**
+     * @param previous
+     *            the entry the load replaces, read under the lock by the caller
+     */
+    private FutureTask<Entry> newLoadTask(final HttpRetrievalService httpRetrievalService, final String pluginId,
+            final Slot slot, final Entry previous) {
+        return new FutureTask<Entry>(new Callable<Entry>() {
+            public Entry call() {
+                Entry loaded = null;
+                try {
+                    loaded = load(httpRetrievalService, pluginId, previous);
+                    return loaded;
+                } finally {
+                    synchronized (slots) {
+                        if (loaded != null) {
+                            slot.entry = loaded;
+                        }
+                        slot.loading = null;
+                    }
+                }
+            }
+        });
+    }
+
+    private Entry load(HttpRetrievalService httpRetrievalService, String pluginId, Entry previous) {
+        long now = System.currentTimeMillis();
+        try {
+            String rawStats = jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, pluginId);
+            if (StringUtils.isBlank(rawStats)) {
+                return failed(previous, now, null);
+            }
+            if (previous != null && rawStats.equals(previous.rawStats)) {
+                // unchanged (usually revalidated by the server), no need to parse again
+                return new Entry(previous, now + ttl, null);
+            }
+            StatsInfoParser stats;
+            long start = PARSE.start();
+            try {
+                stats = new StatsInfoParser(pluginId, rawStats);
+            } finally {
+                PARSE.stop(start);
+            }
+            return new Entry(stats, rawStats, now + ttl, null);
+        } catch (PluginHttpException e) {
+            Metrics.getInstance().error("stats", e);
+            if (e.getStatusCode() == NOT_FOUND) {
+                // the plugin has no stats (any more)
+                return new Entry(null, null, now + failureTtl, e);
+            }
+            return failed(previous, now, e);
+        } catch (Exception e) {
+            Metrics.getInstance().error("stats", e);
+            return failed(previous, now, e);
+        }
+    }
+
+    /**
+     * Gets the entry of a failed load: the previous stats are kept if there are any, until the next attempt.
+     */
+    private Entry failed(Entry previous, long now, Exception failure) {
+        if (previous != null && previous.stats != null) {
+            return new Entry(previous, now + RETRY_DELAY, failure);
+        }
+        return new Entry(null, null, now + failureTtl, failure);
+    }
+
+    /**
+     * Gets the cached plugins that were viewed the most since they were cached.
+     *
+     * @param count
+     *            the maximum number of plugins to return
+     * @return the plugin ids, most viewed first
+     */
+    public List<String> getMostViewed(int count) {
+        List<ViewCount> viewed = new ArrayList<ViewCount>();
+        synchronized (slots) {
+            for (Map.Entry<String, Slot> slot : slots.entrySet()) {
+                if (slot.getValue().views > 0) {
+                    viewed.add(new ViewCount(slot.getKey(), slot.getValue().views));
+                }
+            }
+        }
+        Collections.sort(viewed);
+        List<String> mostViewed = new ArrayList<String>(Math.min(count, viewed.size()));
+        for (int i = 0; i < viewed.size() && i < count; i++) {
+            mostViewed.add(viewed.get(i).pluginId);
+        }
+        return mostViewed;
+    }
+
+    /**
+     * Drops all cached stats.
+     */
+    public void clear() {
+        synchronized (slots) {
+            slots.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (slots) {
+            return slots.size();
+        }
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getFailureTtl() {
+        return failureTtl;
+    }
+
+    public void setFailureTtl(long failureTtl) {
+        this.failureTtl = failureTtl;
+    }
+
+    private static class Slot {
+
+        private Entry entry;
+        private FutureTask<Entry> loading;
+        private int views;
+    }
+
+    private static class ViewCount implements Comparable<ViewCount> {
+
+        private final String pluginId;
+        private final int views;
+
+        ViewCount(String pluginId, int views) {
+            this.pluginId = pluginId;
+            this.views = views;
+        }
+
+        /**
+         * Most viewed first.
+         */
+        public int compareTo(ViewCount o) {
+            return views > o.views ? -1 : views == o.views ? 0 : 1;
+        }
+    }
+
+    /**
+     * The cached stats of a plugin.
+     */
+    public static class Entry {
+
+        private final StatsInfoParser stats;
+        private final String rawStats;
+        private final long id;
+        private final long expires;
+        private final Exception failure;
+
+        public Entry(StatsInfoParser stats, String rawStats, long expires, Exception failure) {
+            this.stats = stats;
+            this.rawStats = rawStats;
+            this.id = stats == null ? 0 : IDS.incrementAndGet();
+            this.expires = expires;
+            this.failure = failure;
+        }
+
+        private Entry(Entry unchanged, long expires, Exception failure) {
+            this.stats = unchanged.stats;
+            this.rawStats = unchanged.rawStats;
+            this.id = unchanged.id;
+            this.expires = expires;
+            this.failure = failure;
+        }
+
+        /**
+         * @return the stats, <code>null</code> if the plugin has none or they could not be loaded
+         */
+        public StatsInfoParser getStats() {
+            return stats;
+        }
+
+        /**
+         * Gets the process wide unique id of the stats, it only changes when the stats do.
+         *
+         * @return the id, <code>0</code> if there are no stats
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return the exception loading the stats failed with, <code>null</code> if they did not fail; the stats
+         *         loaded before the failure may still be there
+         */
+        public Exception getFailure() {
+            return failure;
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package org.jenkinsci.confluence.plugins;
 
+import java.io.IOException;
+import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
@@ -7,22 +9,26 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map.Entry;
 import java.util.SortedMap;
 import java.util.TreeMap;
 
-import com.atlassian.confluence.json.parser.JSONException;
 import org.apache.commons.lang.StringUtils;
-import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
 import org.json.simple.parser.JSONParser;
 import org.json.simple.parser.ParseException;
 
 
 public class StatsInfoParser {
 
-    private static final int NUMBER_OF_MONTHS = 12;
+    /**
+     * System property to override the default number of months shown.
+     */
+    public static final String MONTHS_PROPERTY = StatsInfoParser.class.getName() + ".months";
+
+    public static final int DEFAULT_NUMBER_OF_MONTHS = 12;
+
+    private static final int NUMBER_OF_MONTHS = Integer.getInteger(MONTHS_PROPERTY, DEFAULT_NUMBER_OF_MONTHS);
 
     // https://developers.google.com/chart/image/docs/chart_params
     private static final String QUERY_FORMAT = "" + // https://chart.googleapis.com/chart?
@@ -33,7 +39,7 @@ public class StatsInfoParser {
             // position of the 'Month' label
             "&chxp=2,50" +
             // Axis Range ( x | y )
-            "&chxr=0,0,{3}|1,0," + NUMBER_OF_MONTHS +
+            "&chxr=0,0,{3}|1,0,{4}" +
             // Axis Style (axis#,color,size)
             "&chxs=1,676767,12" +
             // Visible Axes
@@ -55,57 +61,210 @@ public class StatsInfoParser {
             // chart title (plugin name)
             "&chtt={0}+-+installations";
 
-    private final SortedMap<Date, Integer> sortedSeries = new TreeMap<Date, Integer>();
+    private static final String CHART_URL = "https://chart.googleapis.com/chart?";
+
+    /**
+     * The query, split and encoded once, so rendering only appends the (encoded) arguments.
+     */
+    private static final ChartUrlTemplate QUERY = new ChartUrlTemplate(QUERY_FORMAT);
+
+    private static final String ENCODED_MONTH_SEPARATOR = encodeQuery("|");
+
     private final String pluginName;
-    private Integer maxNumber = 0;
+
+    private final int numberOfMonths;
+
+    /**
+     * The months shown (epoch millis), oldest first.
+     */
+    private final long[] months;
+
+    /**
+     * The number of installations in the month at the same index.
+     */
+    private final int[] installations;
+
+    /**
+     * The labels of the months on the chart.
+     */
+    private final String[] monthLabels;
+
+    private final int maxInstallations;
+
+    /**
+     * The series as a map, built on first use.
+     */
+    private volatile SortedMap<Date, Integer> sortedSeries;
+
+    /**
+     * The chart url, rendered on first use.
+     */
+    private volatile String chartUrl;
+
+    /**
+     * The svg chart, rendered on first use.
+     */
+    private volatile String chartSvg;
 
     public StatsInfoParser(String pluginName, String statsJson) throws ParseException {
+        this(pluginName, statsJson, NUMBER_OF_MONTHS);
+    }
+
+    /**
+     * Parses the stats, the parser is immutable afterwards and can be shared between threads.
+     * 
+     * @param numberOfMonths
+     *            the number of most recent months to show, older ones are skipped while parsing
+     */
+    public StatsInfoParser(String pluginName, String statsJson, int numberOfMonths) throws ParseException {
         if (StringUtils.isBlank(statsJson)) {
             throw new IllegalArgumentException("json  must not be blank/null");
         }
+        if (numberOfMonths <= 0) {
+            throw new IllegalArgumentException("number of months must be positive");
+        }
         this.pluginName = StringUtils.isBlank(pluginName) ? "unknown" : pluginName;
-        init(statsJson);
+        this.numberOfMonths = numberOfMonths;
+
+        SeriesBuilder builder = parse(statsJson, numberOfMonths);
+        int size = builder.size;
+        months = new long[size];
+        installations = new int[size];
+        System.arraycopy(builder.months, 0, months, 0, size);
+        System.arraycopy(builder.installations, 0, installations, 0, size);
+
+        monthLabels = new String[size];
+        SimpleDateFormat df = new SimpleDateFormat("MM");// "yy.MM" - there is not a lot of space on the chart...
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            Date month = new Date(months[i]);
+            monthLabels[i] = df.format(month);
+            if (installations[i] > max) {
+                max = installations[i];
+            }
+        }
+        maxInstallations = max;
     }
 
     /**
-     * inits the state of the parser
+     * parses the installation timeseries
      * 
      * @param statsJson
      *            the json continaing the installation timeseries to be parsed
-     * @throws JSONException
      */
-    private void init(String statsJson) throws ParseException {
-        JSONParser parser = new JSONParser();
-        JSONObject stats = (JSONObject) parser.parse(statsJson);
-        JSONObject timeseries = (JSONObject) stats.get("installations");
-
-        SortedMap<Date, Integer> reverseSortedSeries = new TreeMap<Date, Integer>(Collections.reverseOrder());
-
-        if (timeseries != null) {
-            for (String monthStr : (Iterable<String>) timeseries.keySet()) {
-                Date monthDate = new Date(Long.parseLong(monthStr));
-                reverseSortedSeries.put(monthDate, ((Long) timeseries.get(monthStr)).intValue());
-            }
+    private static SeriesBuilder parse(String statsJson, int numberOfMonths) throws ParseException {
+        SeriesBuilder builder = new SeriesBuilder(numberOfMonths);
+        try {
+            new JSONParser().parse(new StringReader(statsJson), builder);
+        } catch (IOException e) {
+            // can't happen reading a string
+            throw new IllegalStateException(e);
+        }
+        if (!builder.complete) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION, "stats are not a JSON object");
         }
+        return builder;
+    }
 
-        int i = 0;
-        for (Iterator<Entry<Date, Integer>> iterator = reverseSortedSeries.entrySet().iterator(); iterator.hasNext(); i++) {
-            if (i >= NUMBER_OF_MONTHS) { // we only show numbers for the last 12 months
-                break;
-            }
-            final Entry<Date, Integer> entry = iterator.next();
-            sortedSeries.put(entry.getKey(), entry.getValue());
+    /**
+     * Adds a month to the (ascending, bounded) selection of the newest months, unless the selection is full of newer
+     * ones. A month that is already selected gets the new number of installations.
+     *
+     * @return the new size of the selection
+     */
+    private static int select(long[] months, int[] installations, int size, long month, int count) {
+        // position of the first selected month that is not older
+        int pos = size;
+        while (pos > 0 && months[pos - 1] >= month) {
+            pos--;
+        }
+        if (pos < size && months[pos] == month) {
+            installations[pos] = count;
+            return size;
         }
+        if (size < months.length) {
+            System.arraycopy(months, pos, months, pos + 1, size - pos);
+            System.arraycopy(installations, pos, installations, pos + 1, size - pos);
+            size++;
+        } else if (pos == 0) {
+            // older than all of the selected months
+            return size;
+        } else {
+            // drop the oldest one
+            pos--;
+            System.arraycopy(months, 1, months, 0, pos);
+            System.arraycopy(installations, 1, installations, 0, pos);
+        }
+        months[pos] = month;
+        installations[pos] = count;
+        return size;
+    }
 
+    /**
+     * @return the number of months shown
+     */
+    public int getMonthCount() {
+        return months.length;
+    }
+
+    /**
+     * @param index
+     *            the index of the month, the oldest one is at <code>0</code>
+     * @return the start of the month (epoch millis)
+     */
+    public long getMonth(int index) {
+        return months[index];
+    }
+
+    /**
+     * @param index
+     *            the index of the month, the oldest one is at <code>0</code>
+     * @return the number of installations in the month
+     */
+    public int getInstallations(int index) {
+        return installations[index];
+    }
+
+    /**
+     * @param index
+     *            the index of the month, the oldest one is at <code>0</code>
+     * @return the label of the month on the chart
+     */
+    public String getMonthLabel(int index) {
+        return monthLabels[index];
+    }
+
+    /**
+     * @return the name of the plugin, as shown in the chart title
+     */
+    public String getPluginName() {
+        return pluginName;
+    }
+
+    /**
+     * @return the highest number of installations in the months shown, <code>0</code> if there are none
+     */
+    public int getMaxInstallations() {
+        return maxInstallations;
     }
 
     /**
      * Gets the ordered timeseries, the numbers/dates are equals to the ones shown in the chart
      * 
-     * @return installations per month
+     * @return installations per month (unmodifiable)
      */
     public SortedMap<Date, Integer> getSortedSeries() {
-        return sortedSeries;
+        SortedMap<Date, Integer> series = sortedSeries;
+        if (series == null) {
+            // concurrent first calls may both build it, they build equal maps
+            SortedMap<Date, Integer> built = new TreeMap<Date, Integer>();
+            for (int i = 0; i < months.length; i++) {
+                built.put(new Date(months[i]), installations[i]);
+            }
+            series = Collections.unmodifiableSortedMap(built);
+            sortedSeries = series;
+        }
+        return series;
     }
 
     /**
@@ -114,33 +273,203 @@ public class StatsInfoParser {
      * @return final url to render chart
      */
     public String renderChartUrl(boolean encode) {
-        final List<Integer> numbers = new ArrayList<Integer>();
-        final List<String> months = new ArrayList<String>();
+        // the url is always encoded, the same url is rendered every time
+        String url = chartUrl;
+        if (url == null) {
+            // concurrent first renders may both build it, they build the same url
+            url = buildChartUrl();
+            chartUrl = url;
+        }
+        return url;
+    }
 
-        SimpleDateFormat df = new SimpleDateFormat("MM");// "yy.MM" - there is not a lot of space on the chart...
+    /**
+     * Gets the chart as inline svg, showing the same data as the google chart.
+     * 
+     * @return the svg element
+     */
+    public String renderChartSvg() {
+        String svg = chartSvg;
+        if (svg == null) {
+            svg = SvgChart.render(this);
+            chartSvg = svg;
+        }
+        return svg;
+    }
 
-        for (Entry<Date, Integer> entry : sortedSeries.entrySet()) {
-            months.add(df.format(entry.getKey()));
-            final Integer value = entry.getValue();
-            numbers.add(value);
-            if (value > maxNumber) {
-                maxNumber = value;
+    private String buildChartUrl() {
+        final StringBuilder numberStr = new StringBuilder(months.length * 6);
+        final StringBuilder monthStr = new StringBuilder(months.length * 5);
+
+        for (int i = 0; i < months.length; i++) {
+            if (i > 0) {
+                numberStr.append(',');
+                monthStr.append(ENCODED_MONTH_SEPARATOR);
             }
+            monthStr.append(monthLabels[i]);
+            numberStr.append(installations[i]);
         }
 
-        final String numberStr = StringUtils.join(numbers, ',');
-        final String monthStr = StringUtils.join(months, '|');
+        String[] args = { encodeQuery(pluginName), monthStr.toString(), numberStr.toString(),
+                Integer.toString(maxInstallations), Integer.toString(numberOfMonths) };
+        return QUERY.append(new StringBuilder(CHART_URL), args).toString();
+    }
 
-        Object[] args = { pluginName, monthStr, numberStr, maxNumber.toString() };
-        String url = new MessageFormat(QUERY_FORMAT).format(args);
-        if (true) {
-            try {
-                URI uri = new URI("https", "chart.googleapis.com", "/chart", url, null);
-                url = uri.toASCIIString();
-            } catch (URISyntaxException e) {
-                url = null;
+    /**
+     * Encodes a part of an url query the way {@link URI} does.
+     */
+    private static String encodeQuery(String query) {
+        try {
+            // the query is the only component, so the encoded uri is "?" followed by the encoded query
+            return new URI(null, null, null, query, null).toASCIIString().substring(1);
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * A {@link MessageFormat} pattern (only simple arguments like <code>{0}</code>) split into its encoded literal
+     * parts and argument indexes.
+     */
+    private static class ChartUrlTemplate {
+
+        private final String[] literals;
+        private final int[] arguments;
+        private final int length;
+
+        ChartUrlTemplate(String pattern) {
+            List<String> literalList = new ArrayList<String>();
+            List<Integer> argumentList = new ArrayList<Integer>();
+            int start = 0;
+            int open;
+            while ((open = pattern.indexOf('{', start)) != -1) {
+                int close = pattern.indexOf('}', open);
+                literalList.add(encodeQuery(pattern.substring(start, open)));
+                argumentList.add(Integer.valueOf(pattern.substring(open + 1, close)));
+                start = close + 1;
+            }
+            literalList.add(encodeQuery(pattern.substring(start)));
+
+            literals = literalList.toArray(new String[literalList.size()]);
+            arguments = new int[argumentList.size()];
+            int literalLength = 0;
+            for (int i = 0; i < arguments.length; i++) {
+                arguments[i] = argumentList.get(i);
             }
+            for (String literal : literals) {
+                literalLength += literal.length();
+            }
+            length = literalLength;
+        }
+
+        /**
+         * Appends the template filled with the given (encoded) arguments.
+         */
+        StringBuilder append(StringBuilder builder, String[] args) {
+            builder.ensureCapacity(builder.length() + length + 64);
+            for (int i = 0; i < arguments.length; i++) {
+                builder.append(literals[i]).append(args[arguments[i]]);
+            }
+            return builder.append(literals[arguments.length]);
+        }
+    }
+
+    /**
+     * Selects the newest months of the "installations" object from the parse events, without building the object.
+     * Everything else in the document is skipped.
+     */
+    private static class SeriesBuilder implements ContentHandler {
+
+        private final long[] months;
+        private final int[] installations;
+        private int size;
+
+        private int depth;
+        private boolean inInstallations;
+        private String month;
+        private boolean complete;
+
+        SeriesBuilder(int numberOfMonths) {
+            months = new long[numberOfMonths];
+            installations = new int[numberOfMonths];
+        }
+
+        public void startJSON() {
+        }
+
+        public void endJSON() {
+        }
+
+        public boolean startObject() throws ParseException {
+            return start();
+        }
+
+        public boolean startArray() throws ParseException {
+            if (depth == 0) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "stats are not a JSON object");
+            }
+            return start();
+        }
+
+        private boolean start() throws ParseException {
+            depth++;
+            if (inInstallations && depth > 2) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "installations of " + month
+                        + " are not a number");
+            }
+            return true;
+        }
+
+        public boolean startObjectEntry(String key) {
+            if (depth == 1) {
+                inInstallations = "installations".equals(key);
+            } else if (inInstallations && depth == 2) {
+                month = key;
+            }
+            return true;
+        }
+
+        public boolean endObjectEntry() {
+            if (depth == 1) {
+                inInstallations = false;
+            }
+            return true;
+        }
+
+        public boolean primitive(Object value) throws ParseException {
+            if (depth == 0) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "stats are not a JSON object");
+            }
+            if (inInstallations && depth == 2) {
+                if (!(value instanceof Number)) {
+                    throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "installations of " + month
+                            + " are not a number");
+                }
+                try {
+                    size = select(months, installations, size, Long.parseLong(month), ((Number) value).intValue());
+                } catch (NumberFormatException e) {
+                    throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "month " + month
+                            + " is not a timestamp");
+                }
+            }
+            return true;
+        }
+
+        public boolean endObject() {
+            return end();
+        }
+
+        public boolean endArray() {
+            return end();
+        }
+
+        private boolean end() {
+            depth--;
+            if (depth == 0) {
+                complete = true;
+                return false;
+            }
+            return true;
         }
-        return url;
     }
 }
@@ -0,0 +1,27 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Where the installation stats of the plugins are loaded from.
+ */
+public interface StatsSource {
+
+    /**
+     * Opens the installation stats of the given plugin, unless they did not change since they were loaded with the
+     * given validators.
+     *
+     * @param httpRetrievalService
+     *            the service to fetch documents over http with
+     * @param validators
+     *            the validators of the stats loaded before, <code>null</code> to always open them
+     * @throws PluginHttpException
+     *             if there are no stats for the plugin, with status 404
+     */
+    SourceDocument openStats(HttpRetrievalService httpRetrievalService, String pluginId, HttpValidators validators)
+            throws IOException, PluginHttpException;
+}
@@ -0,0 +1,76 @@
+package org.jenkinsci.confluence.plugins;
+
+import org.apache.commons.lang.StringEscapeUtils;
+
+/**
+ * Draws the installations chart as inline SVG, a self-contained alternative to the google chart image that needs no
+ * request to a third party when the page is viewed.
+ * <p>
+ * The chart mimics the google chart: a red line over the months shown, the months below it and the number of
+ * installations on the left.
+ */
+public class SvgChart {
+
+    private static final int WIDTH = 300;
+    private static final int HEIGHT = 225;
+
+    // plot area
+    private static final int LEFT = 45;
+    private static final int RIGHT = WIDTH - 15;
+    private static final int TOP = 30;
+    private static final int BOTTOM = HEIGHT - 45;
+
+    private SvgChart() {
+    }
+
+    /**
+     * @return the svg element showing the installations of the given stats
+     */
+    public static String render(StatsInfoParser stats) {
+        int count = stats.getMonthCount();
+        int max = stats.getMaxInstallations();
+        StringBuilder svg = new StringBuilder(1024 + count * 128);
+
+        svg.append("<svg xmlns=\"http://www.w3.org/2000/svg\" class=\"jenkins-plugin-installations\" width=\"")
+                .append(WIDTH).append("\" height=\"").append(HEIGHT).append("\" viewBox=\"0 0 ").append(WIDTH)
+                .append(' ').append(HEIGHT).append("\" font-family=\"sans-serif\" font-size=\"11\" fill=\"#676767\">");
+        String title = StringEscapeUtils.escapeXml(stats.getPluginName() + " - installations");
+        svg.append("<title>").append(title).append("</title>");
+        svg.append("<text x=\"").append(WIDTH / 2).append("\" y=\"18\" text-anchor=\"middle\" font-size=\"13\" fill=\"#333\">")
+                .append(title).append("</text>");
+
+        // axes
+        svg.append("<path d=\"M").append(LEFT).append(' ').append(TOP).append('V').append(BOTTOM).append('H')
+                .append(RIGHT).append("\" stroke=\"#676767\" fill=\"none\"/>");
+        svg.append("<text x=\"").append(LEFT - 4).append("\" y=\"").append(BOTTOM + 4)
+                .append("\" text-anchor=\"end\">0</text>");
+        svg.append("<text x=\"").append(LEFT - 4).append("\" y=\"").append(TOP + 4).append("\" text-anchor=\"end\">")
+                .append(max).append("</text>");
+        svg.append("<text x=\"").append((LEFT + RIGHT) / 2).append("\" y=\"").append(HEIGHT - 8)
+                .append("\" text-anchor=\"middle\">Month</text>");
+
+        if (count > 0) {
+            StringBuilder points = new StringBuilder(count * 10);
+            for (int i = 0; i < count; i++) {
+                int x = x(i, count);
+                int y = max == 0 ? BOTTOM : BOTTOM - (int) ((long) stats.getInstallations(i) * (BOTTOM - TOP) / max);
+                if (i > 0) {
+                    points.append(' ');
+                }
+                points.append(x).append(',').append(y);
+                svg.append("<text x=\"").append(x).append("\" y=\"").append(BOTTOM + 16)
+                        .append("\" text-anchor=\"middle\">").append(stats.getMonthLabel(i)).append("</text>");
+            }
+            svg.append("<polyline points=\"").append(points)
+                    .append("\" stroke=\"#d24939\" stroke-width=\"4\" stroke-linejoin=\"round\" fill=\"none\"/>");
+        }
+        return svg.append("</svg>").toString();
+    }
+
+    private static int x(int index, int count) {
+        if (count == 1) {
+            return (LEFT + RIGHT) / 2;
+        }
+        return LEFT + index * (RIGHT - LEFT) / (count - 1);
+    }
+}
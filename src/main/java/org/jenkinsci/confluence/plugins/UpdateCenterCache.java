@@ -0,0 +1,347 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.json.simple.parser.ParseException;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Keeps the last loaded update center for a configurable time to live.
+ * <p>
+ * Once an update center has been loaded, it is always served right away: when it expired, a refresh is started in the
+ * background and the stale update center is served until the refresh succeeds. A failing refresh (the update center
+ * being down) keeps the stale update center and is retried after the retry delay ({@link #RETRY_DELAY} by default).
+ * If no update center was ever loaded, the failure is thrown to every request until the retry delay passed.
+ * <p>
+ * Concurrent requests for a not yet loaded update center are coalesced: exactly one thread downloads and parses the
+ * document, all others wait for and share its result.
+ * <p>
+ * With a {@link SnapshotStore}, every newly loaded update center is persisted, and the persisted one can be
+ * {@link #restore() restored} after a restart to be served (and refreshed in the background) right away.
+ */
+public class UpdateCenterCache {
+
+    /**
+     * System property to override the default time to live (in millis).
+     */
+    public static final String TTL_PROPERTY = UpdateCenterCache.class.getName() + ".ttl";
+
+    public static final long DEFAULT_TTL = 15 * 60 * 1000L;
+
+    /**
+     * Minimum time (in millis) between a failed refresh and the next attempt.
+     */
+    public static final long RETRY_DELAY = 60 * 1000L;
+
+    private static final Counter HITS = Metrics.getInstance().counter("updateCenterCache.hits");
+
+    private static final Counter STALE_HITS = Metrics.getInstance().counter("updateCenterCache.staleHits");
+
+    private static final Counter MISSES = Metrics.getInstance().counter("updateCenterCache.misses");
+
+    private final JenkinsRetriever jenkinsRetriever;
+
+    private final Executor refreshExecutor;
+
+    private final AtomicReference<FutureTask<UpdateCenterSnapshot>> inFlight = new AtomicReference<FutureTask<UpdateCenterSnapshot>>();
+
+    private static final AtomicReferenceFieldUpdater<UpdateCenterCache, UpdateCenterSnapshot> SNAPSHOT = AtomicReferenceFieldUpdater
+            .newUpdater(UpdateCenterCache.class, UpdateCenterSnapshot.class, "snapshot");
+
+    private volatile UpdateCenterSnapshot snapshot;
+
+    private volatile SnapshotStore store;
+
+    private volatile long ttl = Long.getLong(TTL_PROPERTY, DEFAULT_TTL);
+
+    private volatile long retryDelay = RETRY_DELAY;
+
+    private volatile long lastFailureTimestamp;
+
+    private volatile Exception lastFailure;
+
+    public UpdateCenterCache(JenkinsRetriever jenkinsRetriever) {
+        this(jenkinsRetriever, null);
+    }
+
+    /**
+     * @param refreshExecutor
+     *            the executor to refresh the update center with, <code>null</code> for the shared background one
+     */
+    public UpdateCenterCache(JenkinsRetriever jenkinsRetriever, Executor refreshExecutor) {
+        this.jenkinsRetriever = jenkinsRetriever;
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Gets the cached update center. It is only loaded by the calling thread if there is none yet, an expired update
+     * center is returned as is while it is refreshed in the background. If there is none yet because the last load
+     * failed less than the retry delay ago, that failure is thrown again without loading.
+     *
+     * @param httpRetrievalService
+     *            the http retrieval service to load the update center with
+     * @return the update center, never <code>null</code>
+     */
+    public UpdateCenterSnapshot get(HttpRetrievalService httpRetrievalService) throws IOException,
+            PluginHttpException, ParseException {
+        UpdateCenterSnapshot current = snapshot;
+        if (current == null) {
+            MISSES.increment();
+            Exception failure = lastFailure;
+            if (failure != null && System.currentTimeMillis() - lastFailureTimestamp < retryDelay) {
+                // an unreachable server is not asked again by every render
+                throw rethrow(failure);
+            }
+            return load(httpRetrievalService, false);
+        }
+        if (!isFresh(current)) {
+            STALE_HITS.increment();
+            refreshInBackground(httpRetrievalService);
+        } else {
+            HITS.increment();
+        }
+        return current;
+    }
+
+    /**
+     * Loads the update center on the calling thread if there is none yet or if it expires within the given time, so
+     * renders during that time are served from the cache without waiting or refreshing.
+     *
+     * @param httpRetrievalService
+     *            the http retrieval service to load the update center with
+     * @param horizon
+     *            the time (in millis) the cached update center must stay fresh
+     * @return the update center, never <code>null</code>
+     */
+    public UpdateCenterSnapshot prefetch(HttpRetrievalService httpRetrievalService, long horizon) throws IOException,
+            PluginHttpException, ParseException {
+        UpdateCenterSnapshot current = snapshot;
+        if (current != null && current.getAge() + horizon < ttl) {
+            return current;
+        }
+        return load(httpRetrievalService, true);
+    }
+
+    /**
+     * Starts a refresh in the background, unless one is already running or the last one failed too recently.
+     */
+    private void refreshInBackground(HttpRetrievalService httpRetrievalService) {
+        if (inFlight.get() != null || System.currentTimeMillis() - lastFailureTimestamp < retryDelay) {
+            return;
+        }
+        FutureTask<UpdateCenterSnapshot> created = newLoadTask(httpRetrievalService);
+        if (inFlight.compareAndSet(null, created)) {
+            try {
+                refreshExecutor().execute(created);
+            } catch (RejectedExecutionException e) {
+                inFlight.compareAndSet(created, null);
+            }
+        }
+    }
+
+    /**
+     * Loads the update center, or waits for the load in flight.
+     *
+     * @param reload
+     *            whether to load even if there is an update center already
+     */
+    private UpdateCenterSnapshot load(HttpRetrievalService httpRetrievalService, boolean reload) throws IOException,
+            PluginHttpException, ParseException {
+        while (true) {
+            FutureTask<UpdateCenterSnapshot> task = inFlight.get();
+            if (task == null) {
+                // a load might have completed since we last looked
+                UpdateCenterSnapshot current = snapshot;
+                if (current != null && !reload) {
+                    return current;
+                }
+                FutureTask<UpdateCenterSnapshot> created = newLoadTask(httpRetrievalService);
+                if (!inFlight.compareAndSet(null, created)) {
+                    continue;
+                }
+                created.run();
+                task = created;
+            }
+            return await(task);
+        }
+    }
+
+    private FutureTask<UpdateCenterSnapshot> newLoadTask(final HttpRetrievalService httpRetrievalService) {
+        return new FutureTask<UpdateCenterSnapshot>(new Callable<UpdateCenterSnapshot>() {
+            public UpdateCenterSnapshot call() throws Exception {
+                try {
+                    UpdateCenterSnapshot previous = snapshot;
+                    UpdateCenterSnapshot loaded = jenkinsRetriever.retrieveUpdateCenter(httpRetrievalService,
+                            previous);
+                    // off the render threads when refreshing in the background
+                    loaded.getDependencyGraph().index();
+                    snapshot = loaded;
+                    lastFailure = null;
+                    if (previous == null || loaded.getId() != previous.getId()) {
+                        persist(loaded);
+                    }
+                    return loaded;
+                } catch (Exception e) {
+                    Metrics.getInstance().error("updateCenter", e);
+                    lastFailure = e;
+                    lastFailureTimestamp = System.currentTimeMillis();
+                    throw e;
+                }
+            }
+        }) {
+            @Override
+            protected void done() {
+                inFlight.compareAndSet(this, null);
+            }
+        };
+    }
+
+    /**
+     * Saves the loaded update center in the background, the load (and whoever waits for it) doesn't wait for the disk.
+     */
+    private void persist(final UpdateCenterSnapshot loaded) {
+        final SnapshotStore current = store;
+        if (current == null) {
+            return;
+        }
+        try {
+            refreshExecutor().execute(new Runnable() {
+                public void run() {
+                    try {
+                        current.save(loaded);
+                    } catch (IOException e) {
+                        // the update center is still served, it just won't survive a restart
+                        Metrics.getInstance().error("snapshotStore", e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shutting down, the previously persisted update center is restored next time
+        }
+    }
+
+    private Executor refreshExecutor() {
+        return refreshExecutor == null ? BackgroundExecutors.refresh() : refreshExecutor;
+    }
+
+    private UpdateCenterSnapshot await(FutureTask<UpdateCenterSnapshot> task) throws IOException,
+            PluginHttpException, ParseException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the update center");
+        } catch (ExecutionException e) {
+            throw rethrow(e.getCause());
+        }
+    }
+
+    /**
+     * Throws the given failure of a load as what {@link #get(HttpRetrievalService)} throws.
+     *
+     * @return nothing, it always throws
+     */
+    private static RuntimeException rethrow(Throwable cause) throws IOException, PluginHttpException, ParseException {
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        } else if (cause instanceof PluginHttpException) {
+            throw (PluginHttpException) cause;
+        } else if (cause instanceof ParseException) {
+            throw (ParseException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new IllegalStateException(cause);
+    }
+
+    private boolean isFresh(UpdateCenterSnapshot candidate) {
+        return candidate != null && candidate.getAge() < ttl;
+    }
+
+    /**
+     * @return whether the cached update center is older than the time to live, <code>false</code> if there is none
+     */
+    public boolean isStale() {
+        UpdateCenterSnapshot current = snapshot;
+        return current != null && !isFresh(current);
+    }
+
+    /**
+     * @return the exception of the last load if it failed, <code>null</code> if it succeeded
+     */
+    public Exception getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Serves the update center persisted in the store until a newer one is loaded, unless one is cached already.
+     *
+     * @return whether an update center was restored
+     */
+    public boolean restore() {
+        SnapshotStore current = store;
+        if (current == null || snapshot != null) {
+            return false;
+        }
+        UpdateCenterSnapshot restored = current.load();
+        return restored != null && SNAPSHOT.compareAndSet(this, null, restored);
+    }
+
+    /**
+     * @param store
+     *            the store to persist newly loaded update centers in, <code>null</code> to not persist them
+     */
+    public void setStore(SnapshotStore store) {
+        this.store = store;
+    }
+
+    public SnapshotStore getStore() {
+        return store;
+    }
+
+    /**
+     * Drops the cached update center, the next request will load it again.
+     */
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param ttl
+     *            the time (in millis) a loaded update center is served before it is loaded again
+     */
+    public void setTtl(long ttl) {
+        this.ttl = ttl;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * @param retryDelay
+     *            the minimum time (in millis) between a failed load and the next attempt, {@link #RETRY_DELAY} by
+     *            default
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+}
@@ -0,0 +1,274 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.ContentHandler;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+/**
+ * Parses the update center straight from the response stream into an index of {@link PluginInfo}s.
+ * <p>
+ * The update center is served as JSONP (<code>updateCenter.post({...});</code>): the prefix is skipped while reading and
+ * parsing stops at the end of the wrapped object, so the suffix is never read. The document is never held as a whole
+ * in memory: each plugin is converted as soon as it has been read, and everything the macros do not show is skipped.
+ */
+public class UpdateCenterParser {
+
+    private static final String JSONP_PREFIX = "updateCenter.post(";
+
+    private UpdateCenterParser() {
+    }
+
+    /**
+     * Parses the (UTF-8 encoded) update center, with or without JSONP wrapper, from the given stream.
+     *
+     * @param in
+     *            the stream to parse, it is closed when done
+     * @return the (unmodifiable) plugins by id
+     */
+    public static Map<String, PluginInfo> parse(InputStream in) throws IOException, ParseException {
+        try {
+            return parse(new InputStreamReader(in, "UTF-8"));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Parses the update center, with or without JSONP wrapper, from the given reader.
+     *
+     * @return the (unmodifiable) plugins by id
+     */
+    public static Map<String, PluginInfo> parse(Reader reader) throws IOException, ParseException {
+        PushbackReader in = new PushbackReader(reader, JSONP_PREFIX.length());
+        skipJsonpPrefix(in);
+        IndexBuilder builder = new IndexBuilder();
+        new JSONParser().parse(in, builder);
+        if (!builder.complete) {
+            throw new ParseException(ParseException.ERROR_UNEXPECTED_EXCEPTION, "update center is not a JSON object");
+        }
+        return Collections.unmodifiableMap(builder.plugins);
+    }
+
+    /**
+     * Skips leading whitespace and the JSONP prefix, if there is one.
+     */
+    private static void skipJsonpPrefix(PushbackReader in) throws IOException {
+        int c;
+        do {
+            c = in.read();
+        } while (c != -1 && Character.isWhitespace(c));
+        if (c == -1) {
+            return;
+        }
+        in.unread(c);
+
+        char[] prefix = new char[JSONP_PREFIX.length()];
+        int length = 0;
+        while (length < prefix.length) {
+            int read = in.read(prefix, length, prefix.length - length);
+            if (read == -1) {
+                break;
+            }
+            length += read;
+        }
+        if (length != prefix.length || !JSONP_PREFIX.equals(new String(prefix))) {
+            in.unread(prefix, 0, length);
+        }
+    }
+
+    /**
+     * Builds the plugin index from the parse events.
+     * <p>
+     * The containers of the document are counted by depth: the update center object is at depth 1, its "plugins"
+     * object at depth 2 and the plugins themselves at depth 3. Each plugin is collected as a small json-simple tree,
+     * converted once it is complete and then dropped. Values nobody needs (other update center properties, unused
+     * plugin properties) are skipped without building anything.
+     */
+    private static class IndexBuilder implements ContentHandler {
+
+        private static final int PLUGIN_DEPTH = 3;
+
+        private static final Set<String> PLUGIN_PROPERTIES = new HashSet<String>(Arrays.asList("name", "version",
+                "previousVersion", "buildDate", "releaseTimestamp", "previousTimestamp", "requiredCore", "scm", "wiki",
+                "dependencies", "developers"));
+
+        private final Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+
+        /**
+         * Pool to share the many repeated values (core versions, dependency names, ...) between plugins.
+         */
+        private final Map<String, String> strings = new HashMap<String, String>();
+
+        private final List<Object> containers = new ArrayList<Object>();
+        private final List<String> keys = new ArrayList<String>();
+
+        private int depth;
+        private int skipDepth = -1;
+        private String pluginId;
+        private boolean complete;
+
+        public void startJSON() {
+        }
+
+        public void endJSON() {
+        }
+
+        public boolean startObject() {
+            depth++;
+            if (!isSkipping() && depth >= PLUGIN_DEPTH) {
+                containers.add(new JSONObject());
+            }
+            return true;
+        }
+
+        public boolean startArray() throws ParseException {
+            depth++;
+            if (depth == 1) {
+                throw new ParseException(ParseException.ERROR_UNEXPECTED_TOKEN, "update center is not a JSON object");
+            }
+            if (!isSkipping() && depth >= PLUGIN_DEPTH) {
+                containers.add(new JSONArray());
+            }
+            return true;
+        }
+
+        public boolean startObjectEntry(String key) {
+            if (isSkipping()) {
+                return true;
+            }
+            if (depth == 1 && !"plugins".equals(key) || depth == PLUGIN_DEPTH && !PLUGIN_PROPERTIES.contains(key)) {
+                skipDepth = depth;
+            } else if (depth == 2) {
+                pluginId = share(key);
+            } else if (depth >= PLUGIN_DEPTH) {
+                keys.add(key);
+            }
+            return true;
+        }
+
+        public boolean endObjectEntry() {
+            if (skipDepth == depth) {
+                skipDepth = -1;
+            } else if (!isSkipping() && depth >= PLUGIN_DEPTH) {
+                keys.remove(keys.size() - 1);
+            }
+            return true;
+        }
+
+        public boolean primitive(Object value) {
+            if (depth == 0) {
+                return false;
+            }
+            if (!isSkipping() && depth >= PLUGIN_DEPTH) {
+                add(value instanceof String ? share((String) value) : value);
+            }
+            return true;
+        }
+
+        public boolean endObject() {
+            return end();
+        }
+
+        public boolean endArray() {
+            return end();
+        }
+
+        private boolean end() {
+            if (!isSkipping() && depth >= PLUGIN_DEPTH) {
+                Object container = containers.remove(containers.size() - 1);
+                if (depth != PLUGIN_DEPTH) {
+                    add(container);
+                } else if (container instanceof JSONObject) {
+                    plugins.put(pluginId, toPluginInfo((JSONObject) container));
+                }
+            }
+            depth--;
+            if (depth == 0) {
+                // end of the update center, ignore whatever follows
+                complete = true;
+                return false;
+            }
+            return true;
+        }
+
+        private boolean isSkipping() {
+            return skipDepth != -1;
+        }
+
+        @SuppressWarnings("unchecked")
+        private void add(Object value) {
+            Object parent = containers.get(containers.size() - 1);
+            if (parent instanceof JSONObject) {
+                ((JSONObject) parent).put(keys.get(keys.size() - 1), value);
+            } else {
+                ((JSONArray) parent).add(value);
+            }
+        }
+
+        private PluginInfo toPluginInfo(JSONObject plugin) {
+            return new PluginInfo(getString(plugin, "name"), getString(plugin, "version"), getString(plugin,
+                    "previousVersion"), getString(plugin, "buildDate"), getString(plugin, "releaseTimestamp"),
+                    getString(plugin, "previousTimestamp"), getString(plugin, "requiredCore"),
+                    getString(plugin, "scm"), getString(plugin, "wiki"), toDependencies(plugin.get("dependencies")),
+                    toDevelopers(plugin.get("developers")));
+        }
+
+        private PluginInfo.Dependency[] toDependencies(Object value) {
+            if (!(value instanceof JSONArray)) {
+                return null;
+            }
+            JSONArray array = (JSONArray) value;
+            PluginInfo.Dependency[] dependencies = new PluginInfo.Dependency[array.size()];
+            for (int i = 0; i < dependencies.length; i++) {
+                JSONObject dependency = (JSONObject) array.get(i);
+                dependencies[i] = new PluginInfo.Dependency(getString(dependency, "name"), getString(dependency,
+                        "version"), Boolean.parseBoolean(getString(dependency, "optional")));
+            }
+            return dependencies;
+        }
+
+        private PluginInfo.Developer[] toDevelopers(Object value) {
+            if (!(value instanceof JSONArray)) {
+                return null;
+            }
+            JSONArray array = (JSONArray) value;
+            PluginInfo.Developer[] developers = new PluginInfo.Developer[array.size()];
+            for (int i = 0; i < developers.length; i++) {
+                JSONObject developer = (JSONObject) array.get(i);
+                developers[i] = new PluginInfo.Developer(getString(developer, "name"), getString(developer,
+                        "developerId"), getString(developer, "email"));
+            }
+            return developers;
+        }
+
+        private String getString(JSONObject o, String prop) {
+            Object value = o.get(prop);
+            return value == null ? null : share(value.toString());
+        }
+
+        private String share(String value) {
+            String shared = strings.get(value);
+            if (shared == null) {
+                strings.put(value, value);
+                shared = value;
+            }
+            return shared;
+        }
+    }
+}
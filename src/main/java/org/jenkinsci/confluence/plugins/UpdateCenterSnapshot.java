@@ -0,0 +1,198 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The plugins of the update center as they were loaded at a given point in time.
+ */
+public class UpdateCenterSnapshot {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    private final Map<String, PluginInfo> plugins;
+    private final long id;
+    private final long timestamp;
+    private final HttpValidators validators;
+    private final DependencyGraph dependencyGraph;
+    private final ChangeSet changes;
+
+    public UpdateCenterSnapshot(Map<String, PluginInfo> plugins, long timestamp) {
+        this(plugins, timestamp, null);
+    }
+
+    public UpdateCenterSnapshot(Map<String, PluginInfo> plugins, long timestamp, HttpValidators validators) {
+        this(checkNotNull(plugins), new DependencyGraph(plugins), IDS.incrementAndGet(), timestamp, validators, null);
+    }
+
+    private UpdateCenterSnapshot(Map<String, PluginInfo> plugins, DependencyGraph dependencyGraph, long id,
+            long timestamp, HttpValidators validators, ChangeSet changes) {
+        this.plugins = plugins;
+        this.dependencyGraph = dependencyGraph;
+        this.id = id;
+        this.timestamp = timestamp;
+        this.validators = validators;
+        this.changes = changes;
+    }
+
+    private static Map<String, PluginInfo> checkNotNull(Map<String, PluginInfo> plugins) {
+        if (plugins == null) {
+            throw new IllegalArgumentException("plugins must not be null");
+        }
+        return plugins;
+    }
+
+    /**
+     * Gets a copy of this snapshot for a document the server confirmed to be unchanged. The copy shares the document, the
+     * dependency graph and the id of this snapshot.
+     *
+     * @param timestamp
+     *            the time the document was revalidated
+     * @param validators
+     *            the validators sent along the confirmation, <code>null</code> to keep the current ones
+     */
+    public UpdateCenterSnapshot revalidated(long timestamp, HttpValidators validators) {
+        return new UpdateCenterSnapshot(plugins, dependencyGraph, id, timestamp, validators == null ? this.validators
+                : validators, changes);
+    }
+
+    /**
+     * Gets the snapshot of a document loaded after this one. Plugins that did not change are shared with this
+     * snapshot, so they are not kept twice, and the new snapshot knows which plugins changed.
+     *
+     * @param loaded
+     *            the plugins of the newer document
+     * @param timestamp
+     *            the time the newer document was loaded
+     * @param validators
+     *            the validators of the newer document, <code>null</code> if the server did not send any
+     */
+    public UpdateCenterSnapshot successor(Map<String, PluginInfo> loaded, long timestamp, HttpValidators validators) {
+        checkNotNull(loaded);
+        Map<String, PluginInfo> merged = new HashMap<String, PluginInfo>(loaded.size() * 4 / 3 + 1);
+        Set<String> changed = new HashSet<String>();
+        for (Map.Entry<String, PluginInfo> plugin : loaded.entrySet()) {
+            PluginInfo current = plugins.get(plugin.getKey());
+            if (current != null && current.equals(plugin.getValue())) {
+                merged.put(plugin.getKey(), current);
+            } else {
+                merged.put(plugin.getKey(), plugin.getValue());
+                changed.add(plugin.getKey());
+            }
+        }
+        for (String pluginId : plugins.keySet()) {
+            if (!loaded.containsKey(pluginId)) {
+                changed.add(pluginId);
+            }
+        }
+        Map<String, PluginInfo> successorPlugins = Collections.unmodifiableMap(merged);
+        DependencyGraph successorGraph = new DependencyGraph(successorPlugins);
+        Set<String> affected = changed.isEmpty() ? changed : affectedBy(changed, successorPlugins, successorGraph);
+        return new UpdateCenterSnapshot(successorPlugins, successorGraph, IDS.incrementAndGet(), timestamp,
+                validators, new ChangeSet(id, changed, affected));
+    }
+
+    /**
+     * Gets the changed plugins, their dependents in either snapshot, transitively, and their dependencies in either
+     * snapshot, which list them as dependents.
+     */
+    private Set<String> affectedBy(Set<String> changed, Map<String, PluginInfo> successorPlugins,
+            DependencyGraph successorGraph) {
+        Set<String> affected = new HashSet<String>(changed);
+        List<String> toVisit = new ArrayList<String>(changed);
+        while (!toVisit.isEmpty()) {
+            String pluginId = toVisit.remove(toVisit.size() - 1);
+            addDependents(dependencyGraph, pluginId, affected, toVisit);
+            addDependents(successorGraph, pluginId, affected, toVisit);
+        }
+        for (String pluginId : changed) {
+            addDependencies(plugins.get(pluginId), affected);
+            addDependencies(successorPlugins.get(pluginId), affected);
+        }
+        return affected;
+    }
+
+    private static void addDependents(DependencyGraph graph, String pluginId, Set<String> affected,
+            List<String> toVisit) {
+        for (DependencyGraph.Dependent dependent : graph.getDependents(pluginId)) {
+            if (affected.add(dependent.getPluginId())) {
+                toVisit.add(dependent.getPluginId());
+            }
+        }
+    }
+
+    private static void addDependencies(PluginInfo plugin, Set<String> affected) {
+        if (plugin == null) {
+            return;
+        }
+        for (PluginInfo.Dependency dependency : plugin.getDependencies()) {
+            if (dependency.getName() != null) {
+                affected.add(dependency.getName());
+            }
+        }
+    }
+
+    /**
+     * @return the (unmodifiable) plugins by id
+     */
+    public Map<String, PluginInfo> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * @return the plugin with the given id, <code>null</code> if there is none
+     */
+    public PluginInfo getPlugin(String pluginId) {
+        return plugins.get(pluginId);
+    }
+
+    /**
+     * @return the dependencies between the plugins, created along with the snapshot and indexed by the task loading it
+     */
+    public DependencyGraph getDependencyGraph() {
+        return dependencyGraph;
+    }
+
+    /**
+     * @return the changes since the snapshot this one succeeded, <code>null</code> if it was not loaded as a successor
+     */
+    public ChangeSet getChanges() {
+        return changes;
+    }
+
+    /**
+     * Gets the process wide unique id of the document, a newer document always has a greater id.
+     *
+     * @return snapshot id
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the validators of the document, <code>null</code> if the server did not send any
+     */
+    public HttpValidators getValidators() {
+        return validators;
+    }
+
+    /**
+     * @return the time (millis since epoch) the document was loaded or last revalidated
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return the number of millis since the document was loaded or last revalidated
+     */
+    public long getAge() {
+        return System.currentTimeMillis() - timestamp;
+    }
+}
@@ -0,0 +1,24 @@
+package org.jenkinsci.confluence.plugins;
+
+import java.io.IOException;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+/**
+ * Where the update center document is loaded from.
+ */
+public interface UpdateCenterSource {
+
+    /**
+     * Opens the update center document, unless it did not change since it was loaded with the given validators.
+     *
+     * @param httpRetrievalService
+     *            the service to fetch documents over http with
+     * @param validators
+     *            the validators of the document loaded before, <code>null</code> to always open it
+     */
+    SourceDocument openUpdateCenter(HttpRetrievalService httpRetrievalService, HttpValidators validators)
+            throws IOException, PluginHttpException;
+}
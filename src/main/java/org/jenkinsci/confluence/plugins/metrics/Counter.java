@@ -0,0 +1,23 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events (cache hits, errors, ...) or amounts (bytes). Lock-free, so it can be updated on every render.
+ */
+public class Counter implements CounterMBean {
+
+    private final AtomicLong count = new AtomicLong();
+
+    public void increment() {
+        count.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        count.addAndGet(amount);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+}
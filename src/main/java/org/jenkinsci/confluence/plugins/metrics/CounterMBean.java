@@ -0,0 +1,9 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+/**
+ * JMX view of a {@link Counter}.
+ */
+public interface CounterMBean {
+
+    long getCount();
+}
@@ -0,0 +1,136 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The timers and counters of the plugin, by name, exposed as MBeans once {@link #register(MBeanServer) registered}.
+ * <p>
+ * Metrics are created on first use and live as long as the plugin is loaded. Their MBeans are named
+ * <code>org.jenkinsci.confluence.plugins:type=Timer,name=&lt;name&gt;</code> (or <code>type=Counter</code>). Failing to
+ * register an MBean never fails the caller, metrics are only ever a side show.
+ */
+public class Metrics {
+
+    public static final String DOMAIN = "org.jenkinsci.confluence.plugins";
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+
+    private final Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+
+    private MBeanServer server;
+
+    /**
+     * @return the metrics shared by the whole plugin
+     */
+    public static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the timer with the given name, created if there is none yet
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timer = add(timers, "Timer", name, new Timer());
+        }
+        return timer;
+    }
+
+    /**
+     * @return the counter with the given name, created if there is none yet
+     */
+    public Counter counter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counter = add(counters, "Counter", name, new Counter());
+        }
+        return counter;
+    }
+
+    /**
+     * Counts an error of the given stage by its type, in the counter
+     * <code>&lt;stage&gt;.errors.&lt;simple class name&gt;</code>.
+     */
+    public void error(String stage, Throwable error) {
+        counter(stage + ".errors." + error.getClass().getSimpleName()).increment();
+    }
+
+    private synchronized <M> M add(Map<String, M> metrics, String type, String name, M created) {
+        M existing = metrics.get(name);
+        if (existing != null) {
+            return existing;
+        }
+        metrics.put(name, created);
+        if (server != null) {
+            register(type, name, created);
+        }
+        return created;
+    }
+
+    /**
+     * Registers the MBeans of all metrics, and of those created later on, with the given server. MBeans registered
+     * with another server before are unregistered first.
+     */
+    public synchronized void register(MBeanServer mbeanServer) {
+        unregister();
+        server = mbeanServer;
+        for (Map.Entry<String, Timer> timer : timers.entrySet()) {
+            register("Timer", timer.getKey(), timer.getValue());
+        }
+        for (Map.Entry<String, Counter> counter : counters.entrySet()) {
+            register("Counter", counter.getKey(), counter.getValue());
+        }
+    }
+
+    /**
+     * Unregisters all MBeans, the metrics keep counting.
+     */
+    public synchronized void unregister() {
+        if (server == null) {
+            return;
+        }
+        for (String name : timers.keySet()) {
+            unregister("Timer", name);
+        }
+        for (String name : counters.keySet()) {
+            unregister("Counter", name);
+        }
+        server = null;
+    }
+
+    private void register(String type, String name, Object metric) {
+        try {
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName)) {
+                // left over by an earlier instance of the plugin
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            // not exposed, still counted
+        }
+    }
+
+    private void unregister(String type, String name) {
+        try {
+            server.unregisterMBean(objectName(type, name));
+        } catch (JMException e) {
+            // not registered
+        }
+    }
+
+    /**
+     * @return the name of the MBean of the given metric
+     */
+    public static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+    }
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import java.lang.management.ManagementFactory;
+
+import com.atlassian.plugin.StateAware;
+
+/**
+ * Exposes the {@link Metrics} of the plugin as MBeans of the platform MBean server while the plugin is enabled.
+ */
+public class MetricsExporter implements StateAware {
+
+    private final Metrics metrics;
+
+    public MetricsExporter() {
+        this(Metrics.getInstance());
+    }
+
+    public MetricsExporter(Metrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public void enabled() {
+        metrics.register(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public void disabled() {
+        metrics.unregister();
+    }
+}
@@ -0,0 +1,137 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the durations of a stage (fetch, parse, render, ...): count, total, max and a histogram for percentiles.
+ * <p>
+ * Everything is recorded with atomic operations only, so timing a stage costs two {@link System#nanoTime()} calls and a
+ * few uncontended atomic increments. The histogram has four buckets per power of two, so percentiles are reported
+ * with an error of at most 25%.
+ */
+public class Timer implements TimerMBean {
+
+    private static final int SUB_BUCKETS = 4;
+
+    private static final int SUB_BUCKET_BITS = 2;
+
+    private static final double NANOS_PER_MILLI = 1000000d;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(bucket(Long.MAX_VALUE) + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @return the start time to pass to {@link #stop(long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since the given start.
+     *
+     * @param start
+     *            the time returned by {@link #start()}
+     */
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos
+     *            the duration (in nanos), negative durations count as 0
+     */
+    public void record(long nanos) {
+        long duration = Math.max(nanos, 0);
+        buckets.incrementAndGet(bucket(duration));
+        count.incrementAndGet();
+        total.addAndGet(duration);
+        long current = max.get();
+        while (duration > current && !max.compareAndSet(current, duration)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Values below {@link #SUB_BUCKETS} get a bucket each, larger ones share one of the {@link #SUB_BUCKETS} buckets of
+     * their power of two.
+     */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value falling into the given bucket
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Gets the duration the given share of all recorded durations does not exceed.
+     *
+     * @param quantile
+     *            the share, between 0 and 1
+     * @return the duration (in nanos), rounded up to the end of its bucket, 0 if nothing was recorded
+     */
+    public long getQuantile(double quantile) {
+        long[] counts = new long[buckets.length()];
+        long recorded = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            recorded += counts[i];
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * recorded));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return 0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public double getTotalMillis() {
+        return total.get() / NANOS_PER_MILLI;
+    }
+
+    public double getMeanMillis() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : total.get() / NANOS_PER_MILLI / recorded;
+    }
+
+    public double getMaxMillis() {
+        return max.get() / NANOS_PER_MILLI;
+    }
+
+    public double getMedianMillis() {
+        return getQuantile(0.5) / NANOS_PER_MILLI;
+    }
+
+    public double get99thPercentileMillis() {
+        return getQuantile(0.99) / NANOS_PER_MILLI;
+    }
+}
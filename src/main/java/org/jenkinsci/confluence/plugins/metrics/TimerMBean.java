@@ -0,0 +1,19 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+/**
+ * JMX view of a {@link Timer}, all durations in millis.
+ */
+public interface TimerMBean {
+
+    long getCount();
+
+    double getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getMedianMillis();
+
+    double get99thPercentileMillis();
+}
@@ -0,0 +1,192 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+import com.atlassian.confluence.setup.BootstrapManager;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+public class CacheWarmerTest {
+
+	private HttpRetrievalService httpRetrievalService = Mockito
+			.mock(HttpRetrievalService.class);
+
+	private JenkinsRetriever jenkinsRetriever = Mockito
+			.mock(JenkinsRetriever.class);
+
+	private UpdateCenterCache updateCenterCache = Mockito
+			.mock(UpdateCenterCache.class);
+
+	private StatsCache statsCache = Mockito.mock(StatsCache.class);
+
+	private CacheWarmer warmer;
+
+	@Before
+	public void buildUp() {
+		Mockito.when(jenkinsRetriever.getUpdateCenterCache()).thenReturn(
+				updateCenterCache);
+		Mockito.when(jenkinsRetriever.getStatsCache()).thenReturn(statsCache);
+		Mockito.when(updateCenterCache.getTtl()).thenReturn(
+				UpdateCenterCache.DEFAULT_TTL);
+		Mockito.when(statsCache.getTtl()).thenReturn(StatsCache.DEFAULT_TTL);
+		warmer = new CacheWarmer(jenkinsRetriever);
+		warmer.setHttpRetrievalService(httpRetrievalService);
+		warmer.setInterval(60000);
+		warmer.setStatsCount(2);
+	}
+
+	@After
+	public void tearDown() {
+		warmer.disabled();
+	}
+
+	@Test
+	public void prefetchesUpdateCenterAndMostViewedStats() throws Exception {
+		warmer.setPluginIds("git", "subversion");
+		Mockito.when(statsCache.getMostViewed(2)).thenReturn(
+				Arrays.asList("maven-plugin", "git"));
+
+		warmer.prefetch();
+
+		Mockito.verify(updateCenterCache).prefetch(httpRetrievalService,
+				120000);
+		Mockito.verify(statsCache).prefetch(httpRetrievalService, "git",
+				120000);
+		Mockito.verify(statsCache).prefetch(httpRetrievalService,
+				"subversion", 120000);
+		Mockito.verify(statsCache).prefetch(httpRetrievalService,
+				"maven-plugin", 120000);
+	}
+
+	@Test
+	public void horizonIsAtMostHalfTheTtl() throws Exception {
+		warmer.setInterval(CacheWarmer.DEFAULT_INTERVAL);
+
+		warmer.prefetch();
+
+		Mockito.verify(updateCenterCache).prefetch(httpRetrievalService,
+				UpdateCenterCache.DEFAULT_TTL / 2);
+	}
+
+	@Test
+	public void freshUpdateCenterIsNotReloaded() throws Exception {
+		UpdateCenterCache cache = new UpdateCenterCache(jenkinsRetriever);
+		Mockito.when(jenkinsRetriever.getUpdateCenterCache()).thenReturn(
+				cache);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class))).thenReturn(
+				new UpdateCenterSnapshot(
+						Collections.<String, PluginInfo> emptyMap(), System
+								.currentTimeMillis()));
+		warmer.setInterval(CacheWarmer.DEFAULT_INTERVAL);
+		cache.get(httpRetrievalService);
+
+		warmer.prefetch();
+
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void failedUpdateCenterDoesNotStopStats() throws Exception {
+		warmer.setPluginIds("git");
+		Mockito.when(
+				updateCenterCache.prefetch(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyLong())).thenThrow(new IOException("down"));
+
+		warmer.prefetch();
+
+		Mockito.verify(statsCache).prefetch(httpRetrievalService, "git",
+				120000);
+	}
+
+	@Test
+	public void warmsUpWhenEnabled() throws Exception {
+		warmer.enabled();
+
+		Mockito.verify(updateCenterCache, Mockito.timeout(5000)).prefetch(
+				httpRetrievalService, 120000);
+	}
+
+	@Test
+	public void restoresPersistedUpdateCenterWhenEnabled() throws Exception {
+		BootstrapManager bootstrapManager = Mockito
+				.mock(BootstrapManager.class);
+		Mockito.when(bootstrapManager.getConfluenceHome()).thenReturn(
+				"/confluence-home");
+		warmer.setBootstrapManager(bootstrapManager);
+
+		warmer.enabled();
+
+		ArgumentCaptor<SnapshotStore> store = ArgumentCaptor
+				.forClass(SnapshotStore.class);
+		InOrder inOrder = Mockito.inOrder(updateCenterCache);
+		inOrder.verify(updateCenterCache).setStore(store.capture());
+		inOrder.verify(updateCenterCache).restore();
+		assertEquals(new File("/confluence-home/jenkins-plugin-info",
+				"update-center.bin"), store.getValue().getFile());
+	}
+
+	@Test
+	public void persistsNothingWithoutHome() throws Exception {
+		warmer.enabled();
+
+		Mockito.verify(updateCenterCache, Mockito.never()).setStore(
+				Mockito.any(SnapshotStore.class));
+	}
+
+	@Test
+	public void shutsDownBackgroundExecutorsWhenDisabled() throws Exception {
+		ExecutorService fetch = BackgroundExecutors.fetch();
+		ExecutorService refresh = BackgroundExecutors.refresh();
+		Future<?> queued = new FutureTask<Object>(new Runnable() {
+			public void run() {
+			}
+		}, null);
+		final CountDownLatch release = new CountDownLatch(1);
+		refresh.execute(new Runnable() {
+			public void run() {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					// shut down
+				}
+			}
+		});
+		refresh.execute((Runnable) queued);
+		warmer.enabled();
+
+		warmer.disabled();
+
+		assertTrue(fetch.isShutdown());
+		assertTrue(refresh.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(queued.isCancelled());
+		ExecutorService recreated = BackgroundExecutors.fetch();
+		assertNotSame(fetch, recreated);
+		assertFalse(recreated.isShutdown());
+		assertNotSame(refresh, BackgroundExecutors.refresh());
+	}
+}
@@ -0,0 +1,168 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class DependencyGraphTest {
+
+	@Test
+	public void indexesDependents() throws Exception {
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+		plugins.put("core", plugin("core"));
+		plugins.put("b", plugin("b", dependency("core", "1.0", false)));
+		plugins.put("a", plugin("a", dependency("core", "1.2", true),
+				dependency("b", "2.0", false)));
+
+		DependencyGraph graph = new DependencyGraph(plugins);
+
+		List<DependencyGraph.Dependent> dependents = graph
+				.getDependents("core");
+		assertEquals(2, dependents.size());
+		assertEquals("a", dependents.get(0).getPluginId());
+		assertEquals("1.2", dependents.get(0).getVersion());
+		assertTrue(dependents.get(0).isOptional());
+		assertEquals("b", dependents.get(1).getPluginId());
+		assertFalse(dependents.get(1).isOptional());
+		assertEquals(1, graph.getDependents("b").size());
+		assertTrue(graph.getDependents("a").isEmpty());
+		assertTrue(graph.getDependents("unknown").isEmpty());
+	}
+
+	@Test
+	public void indexesUpdateCenter() throws Exception {
+		UpdateCenterSnapshot snapshot = new UpdateCenterSnapshot(
+				UpdateCenterParser.parse(DependencyGraphTest.class
+						.getResourceAsStream("/update-center.json")),
+				System.currentTimeMillis());
+
+		List<DependencyGraph.Dependent> dependents = snapshot
+				.getDependencyGraph().getDependents("analysis-core");
+		assertEquals(23, dependents.size());
+		assertEquals("analysis-collector", dependents.get(0).getPluginId());
+		assertEquals("warnings", dependents.get(22).getPluginId());
+		assertSame(snapshot.getDependencyGraph(),
+				snapshot.revalidated(System.currentTimeMillis(), null)
+						.getDependencyGraph());
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void dependentsAreUnmodifiable() throws Exception {
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+		plugins.put("b", plugin("b", dependency("core", "1.0", false)));
+		new DependencyGraph(plugins).getDependents("core").clear();
+	}
+
+	@Test
+	public void transitiveDependenciesWithHighestMinimumVersion()
+			throws Exception {
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+		plugins.put("a", plugin("a", dependency("b", "1.0", false),
+				dependency("c", "2.0", false)));
+		plugins.put("b", plugin("b", dependency("d", "1.2", false)));
+		plugins.put("c", plugin("c", dependency("d", "1.10", false),
+				dependency("missing", "3.0", false)));
+		plugins.put("d", plugin("d"));
+
+		List<PluginInfo.Dependency> closure = new DependencyGraph(plugins)
+				.getTransitiveDependencies("a", true);
+
+		assertEquals("b:1.0,c:2.0,d:1.10,missing:3.0", toString(closure));
+	}
+
+	@Test
+	public void transitiveDependenciesSurviveCycles() throws Exception {
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+		plugins.put("a", plugin("a", dependency("b", "1.0", false)));
+		plugins.put("b", plugin("b", dependency("c", "1.0", false)));
+		plugins.put("c", plugin("c", dependency("a", "1.0", false),
+				dependency("b", "2.0", false)));
+		DependencyGraph graph = new DependencyGraph(plugins);
+
+		assertEquals("b:2.0,c:1.0",
+				toString(graph.getTransitiveDependencies("a", true)));
+		assertEquals("a:1.0,c:1.0",
+				toString(graph.getTransitiveDependencies("b", true)));
+		assertEquals("a:1.0,b:2.0",
+				toString(graph.getTransitiveDependencies("c", true)));
+	}
+
+	@Test
+	public void optionalTransitiveDependencies() throws Exception {
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>();
+		plugins.put("a", plugin("a", dependency("b", "1.0", true),
+				dependency("c", "1.0", false)));
+		plugins.put("b", plugin("b", dependency("d", "1.0", false)));
+		plugins.put("c", plugin("c", dependency("b", "0.9", false)));
+		plugins.put("d", plugin("d", dependency("e", "1.0", true)));
+		DependencyGraph graph = new DependencyGraph(plugins);
+
+		assertEquals("b:1.0,c:1.0,d:1.0,e:1.0(optional)",
+				toString(graph.getTransitiveDependencies("a", true)));
+		assertEquals("b:0.9,c:1.0,d:1.0",
+				toString(graph.getTransitiveDependencies("a", false)));
+	}
+
+	@Test
+	public void transitiveDependenciesAreMemoized() throws Exception {
+		UpdateCenterSnapshot snapshot = new UpdateCenterSnapshot(
+				UpdateCenterParser.parse(DependencyGraphTest.class
+						.getResourceAsStream("/update-center.json")),
+				System.currentTimeMillis());
+		DependencyGraph graph = snapshot.getDependencyGraph();
+
+		List<PluginInfo.Dependency> required = graph
+				.getTransitiveDependencies("email-ext", false);
+		assertEquals(
+				"javadoc:1.0,mailer:1.5,maven-plugin:1.509.1,token-macro:1.7",
+				toString(required));
+		assertEquals(
+				"analysis-core:1.41(optional),ant:1.1(optional),dashboard-view:2.2(optional),javadoc:1.0,mailer:1.5,maven-plugin:1.509.1,token-macro:1.7",
+				toString(graph.getTransitiveDependencies("email-ext", true)));
+		assertSame(required, graph.getTransitiveDependencies("email-ext",
+				false));
+	}
+
+	@Test
+	public void comparesVersions() {
+		assertTrue(DependencyGraph.compareVersions("1.10", "1.9") > 0);
+		assertTrue(DependencyGraph.compareVersions("1.509.1", "1.509") > 0);
+		assertTrue(DependencyGraph.compareVersions("2.0", "2.0-beta-1") > 0);
+		assertTrue(DependencyGraph.compareVersions("2.0-SNAPSHOT", "2.0") < 0);
+		assertTrue(DependencyGraph.compareVersions("1.0-beta-2",
+				"1.0-beta-1") > 0);
+		assertEquals(0, DependencyGraph.compareVersions("1.5.1", "1.5.1"));
+	}
+
+	private static String toString(List<PluginInfo.Dependency> dependencies) {
+		StringBuilder string = new StringBuilder();
+		for (PluginInfo.Dependency dependency : dependencies) {
+			if (string.length() > 0) {
+				string.append(',');
+			}
+			string.append(dependency.getName()).append(':')
+					.append(dependency.getVersion());
+			if (dependency.isOptional()) {
+				string.append("(optional)");
+			}
+		}
+		return string.toString();
+	}
+
+	static PluginInfo plugin(String name, PluginInfo.Dependency... dependencies) {
+		return new PluginInfo(name, "1.0", null, null, null, null, null,
+				null, null, dependencies, null);
+	}
+
+	static PluginInfo.Dependency dependency(String name, String version,
+			boolean optional) {
+		return new PluginInfo.Dependency(name, version, optional);
+	}
+}
@@ -0,0 +1,189 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSourceTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File updateCenterFile;
+
+	private FileSource source;
+
+	@Before
+	public void buildUp() throws Exception {
+		updateCenterFile = new File(folder.getRoot(), "update-center.json");
+		copy("/update-center.json", new FileOutputStream(updateCenterFile));
+		File statsDirectory = folder.newFolder("plugin-installation-trend");
+		copy("/subversion.stats.json", new FileOutputStream(new File(
+				statsDirectory, "subversion.stats.json")));
+		source = new FileSource(updateCenterFile, statsDirectory);
+	}
+
+	@Test
+	public void loadsUpdateCenterFromFile() throws Exception {
+		JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+		jenkinsRetriever.setUpdateCenterSource(source);
+		UpdateCenterSnapshot updateCenter = jenkinsRetriever
+				.retrieveUpdateCenter(null, null);
+		assertEquals("1.36", updateCenter.getPlugin("analysis-collector")
+				.getVersion());
+	}
+
+	@Test
+	public void unchangedFileIsNotReadAgain() throws Exception {
+		JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+		jenkinsRetriever.setUpdateCenterSource(source);
+		UpdateCenterSnapshot first = jenkinsRetriever.retrieveUpdateCenter(
+				null, null);
+		UpdateCenterSnapshot second = jenkinsRetriever.retrieveUpdateCenter(
+				null, first);
+		assertEquals(first.getId(), second.getId());
+
+		FileUtils.writeStringToFile(updateCenterFile,
+				"{\"plugins\": {\"git\": {\"version\": \"1.5.0\"}}}", "UTF-8");
+		updateCenterFile.setLastModified(updateCenterFile.lastModified() + 2000);
+		UpdateCenterSnapshot third = jenkinsRetriever.retrieveUpdateCenter(
+				null, second);
+		assertTrue(third.getId() > second.getId());
+		assertEquals("1.5.0", third.getPlugin("git").getVersion());
+	}
+
+	@Test
+	public void readsGzippedFile() throws Exception {
+		byte[] json = FileUtils.readFileToByteArray(updateCenterFile);
+		OutputStream out = new GZIPOutputStream(new FileOutputStream(
+				updateCenterFile));
+		out.write(json);
+		out.close();
+		JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+		jenkinsRetriever.setUpdateCenterSource(source);
+		assertEquals("1.36",
+				jenkinsRetriever.retrieveUpdateCenter(null, null)
+						.getPlugin("analysis-collector").getVersion());
+	}
+
+	@Test
+	public void loadsStatsFromDirectory() throws Exception {
+		JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+		jenkinsRetriever.setStatsSource(source);
+		String first = jenkinsRetriever.retrieveStatsResponse(null,
+				"subversion");
+		assertTrue(first.contains("installations"));
+		assertSame(first,
+				jenkinsRetriever.retrieveStatsResponse(null, "subversion"));
+	}
+
+	@Test
+	public void missingStatsAreNotFound() throws Exception {
+		try {
+			source.openStats(null, "no-such-plugin", null);
+			fail();
+		} catch (PluginHttpException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void statsOutsideDirectoryAreNotFound() throws Exception {
+		copy("/subversion.stats.json", new FileOutputStream(new File(
+				folder.getRoot(), "secret.stats.json")));
+		for (String pluginId : new String[] { "../secret",
+				"..\\secret", folder.getRoot().getPath() + "/secret",
+				"plugin-installation-trend/../../secret" }) {
+			try {
+				source.openStats(null, pluginId, null);
+				fail(pluginId);
+			} catch (PluginHttpException e) {
+				assertEquals(404, e.getStatusCode());
+			}
+		}
+	}
+
+	@Test(expected = FileNotFoundException.class)
+	public void missingUpdateCenterFails() throws Exception {
+		new FileSource(new File(folder.getRoot(), "missing.json"), null)
+				.openUpdateCenter(null, null);
+	}
+
+	@Test
+	public void revalidatesBySizeAndModificationTime() throws Exception {
+		SourceDocument document = source.openUpdateCenter(null, null);
+		document.getBody().close();
+		assertTrue(document.isModified());
+		assertFalse(source.openUpdateCenter(null, document.getValidators())
+				.isModified());
+		assertTrue(source.openUpdateCenter(null,
+				new HttpValidators("\"other\"", null)).isModified());
+	}
+
+	@Test
+	public void configuredByFileUrls() {
+		System.setProperty(JenkinsRetriever.MIRROR_URL_PROPERTY, folder
+				.getRoot().toURI().toString());
+		try {
+			JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+			FileSource configured = (FileSource) jenkinsRetriever
+					.getUpdateCenterSource();
+			assertEquals(updateCenterFile, configured.getUpdateCenterFile());
+			assertEquals(new File(folder.getRoot(),
+					"plugin-installation-trend"),
+					configured.getStatsDirectory());
+			assertSame(configured, jenkinsRetriever.getStatsSource());
+		} finally {
+			System.clearProperty(JenkinsRetriever.MIRROR_URL_PROPERTY);
+		}
+	}
+
+	@Test
+	public void configuredByMirrorUrl() {
+		System.setProperty(JenkinsRetriever.MIRROR_URL_PROPERTY,
+				"http://mirror.example.org/jenkins");
+		System.setProperty(JenkinsRetriever.STATS_URL_PROPERTY,
+				"file:/var/lib/stats");
+		try {
+			JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
+			HttpSource http = (HttpSource) jenkinsRetriever
+					.getUpdateCenterSource();
+			assertEquals("http://mirror.example.org/jenkins/update-center.json",
+					http.getUpdateCenterUrl());
+			assertEquals(new File("/var/lib/stats"),
+					((FileSource) jenkinsRetriever.getStatsSource())
+							.getStatsDirectory());
+		} finally {
+			System.clearProperty(JenkinsRetriever.MIRROR_URL_PROPERTY);
+			System.clearProperty(JenkinsRetriever.STATS_URL_PROPERTY);
+		}
+	}
+
+	private static void copy(String resource, OutputStream out)
+			throws Exception {
+		InputStream in = FileSourceTest.class.getResourceAsStream(resource);
+		try {
+			IOUtils.copy(in, out);
+		} finally {
+			in.close();
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atlassian.confluence.util.http.HttpRequest;
+import com.atlassian.confluence.util.http.HttpResponse;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+public class HttpSourceTest {
+
+	private HttpRetrievalService httpRetrievalService = Mockito
+			.mock(HttpRetrievalService.class);
+
+	private HttpResponse response = Mockito.mock(HttpResponse.class);
+
+	private HttpSource source = new HttpSource(
+			"http://updates.jenkins-ci.org/update-center.json",
+			"http://stats.jenkins-ci.org/plugin-installation-trend/");
+
+	@Before
+	public void buildUp() throws Exception {
+		Mockito.when(
+				httpRetrievalService.getDefaultRequestFor(Mockito.anyString()))
+				.thenReturn(Mockito.mock(HttpRequest.class));
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
+		Mockito.when(response.getHeaders("ETag")).thenReturn(
+				new String[] { "\"2\"" });
+	}
+
+	@Test
+	public void notModifiedReleasesConnection() throws Exception {
+		Mockito.when(response.getStatusCode()).thenReturn(304);
+
+		SourceDocument document = source.openUpdateCenter(
+				httpRetrievalService, new HttpValidators("\"1\"", null));
+
+		assertFalse(document.isModified());
+		assertEquals("\"2\"", document.getValidators().getEtag());
+		Mockito.verify(response).finish();
+	}
+
+	@Test
+	public void errorReleasesConnection() throws Exception {
+		Mockito.when(response.getStatusCode()).thenReturn(404);
+		try {
+			source.openStats(httpRetrievalService, "git", null);
+			fail();
+		} catch (PluginHttpException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+		Mockito.verify(response).finish();
+	}
+
+	@Test
+	public void closingBodyReleasesConnection() throws Exception {
+		Mockito.when(response.getStatusCode()).thenReturn(200);
+		Mockito.when(response.getResponse()).thenReturn(
+				new ByteArrayInputStream("{}".getBytes("UTF-8")));
+
+		SourceDocument document = source.openStats(httpRetrievalService,
+				"git", null);
+		assertTrue(document.isModified());
+		Mockito.verify(response, Mockito.never()).finish();
+
+		InputStream body = document.getBody();
+		assertEquals("{}", IOUtils.toString(body));
+		body.close();
+		Mockito.verify(response).finish();
+	}
+}
@@ -7,13 +7,16 @@ import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.Assert;
 
 import org.apache.commons.io.IOUtils;
 import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import org.jenkinsci.confluence.plugins.metrics.Counter;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
 import org.json.simple.parser.ParseException;
 import org.junit.Before;
 import org.junit.Test;
@@ -25,6 +28,8 @@ import org.mockito.invocation.InvocationOnMock;
 import org.mockito.runners.MockitoJUnitRunner;
 import org.mockito.stubbing.Answer;
 
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.renderer.PageContext;
 import com.atlassian.confluence.util.http.HttpRetrievalService;
 import com.atlassian.renderer.RenderContext;
 import com.atlassian.renderer.v2.RenderMode;
@@ -52,13 +57,14 @@ public class JenkinsPluginInfoMacroTest {
 	public void buildUp() throws IOException, PluginHttpException,
 			ParseException {
 		// return the correct update center details
-		String jsonString = loadTextFile("update-center.json");
-		JSONParser parser = new JSONParser();
-		JSONObject updateCenter = (JSONObject) parser.parse(jsonString);
+		Map<String, PluginInfo> updateCenter = UpdateCenterParser
+				.parse(JenkinsPluginInfoMacroTest.class
+						.getResourceAsStream("/update-center.json"));
 		Mockito.when(
-				jenkinsRetriever.retrieveUpdateCenterDetails(Mockito
+				jenkinsRetriever.getUpdateCenter(Mockito
 						.any(HttpRetrievalService.class))).thenReturn(
-				updateCenter);
+				new UpdateCenterSnapshot(updateCenter, System
+						.currentTimeMillis()));
 		// ensure the string to be rendered is returned as-is to the test
 		Mockito.when(
 				subRenderer.render(Mockito.anyString(),
@@ -79,9 +85,10 @@ public class JenkinsPluginInfoMacroTest {
 		// return the correct stats center details
 		String statsString = loadTextFile("cucumber-reports.stats.json");
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
-						Mockito.anyString())).thenReturn(statsString);
+						Mockito.anyString())).thenReturn(
+				statsEntry(statsString));
 		macro.setHttpRetrievalService(httpRetrievalService);
 		macro.setSubRenderer(subRenderer);
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -98,9 +105,10 @@ public class JenkinsPluginInfoMacroTest {
 		// return the correct stats center details
 		String statsString = loadTextFile("cucumber-reports.stats.json");
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
-						Mockito.anyString())).thenReturn(statsString);
+						Mockito.anyString())).thenReturn(
+				statsEntry(statsString));
 		macro.setHttpRetrievalService(httpRetrievalService);
 		macro.setSubRenderer(subRenderer);
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -119,9 +127,10 @@ public class JenkinsPluginInfoMacroTest {
 		// return the correct stats center details
 		String statsString = loadTextFile("analysis-collector.stats.json");
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
-						Mockito.anyString())).thenReturn(statsString);
+						Mockito.anyString())).thenReturn(
+				statsEntry(statsString));
 		macro.setHttpRetrievalService(httpRetrievalService);
 		macro.setSubRenderer(subRenderer);
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -137,9 +146,10 @@ public class JenkinsPluginInfoMacroTest {
 		// return the correct stats center details
 		String statsString = loadTextFile("AntepediaReporter-CI-plugin.stats.json");
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
-						Mockito.anyString())).thenReturn(statsString);
+						Mockito.anyString())).thenReturn(
+				statsEntry(statsString));
 		macro.setHttpRetrievalService(httpRetrievalService);
 		macro.setSubRenderer(subRenderer);
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -153,7 +163,7 @@ public class JenkinsPluginInfoMacroTest {
 	public void pluginHttpExceptionThrown() throws MacroException, IOException,
 			PluginHttpException, ParseException {
 		Mockito.when(
-				jenkinsRetriever.retrieveUpdateCenterDetails(Mockito
+				jenkinsRetriever.getUpdateCenter(Mockito
 						.any(HttpRetrievalService.class))).thenThrow(
 				new PluginHttpException(300));
 		macro.setHttpRetrievalService(httpRetrievalService);
@@ -170,7 +180,7 @@ public class JenkinsPluginInfoMacroTest {
 	public void parseExceptionThrown() throws MacroException, IOException,
 			PluginHttpException, ParseException {
 		Mockito.when(
-				jenkinsRetriever.retrieveUpdateCenterDetails(Mockito
+				jenkinsRetriever.getUpdateCenter(Mockito
 						.any(HttpRetrievalService.class))).thenThrow(
 				new ParseException(22341, "ParseException message"));
 		macro.setHttpRetrievalService(httpRetrievalService);
@@ -183,11 +193,28 @@ public class JenkinsPluginInfoMacroTest {
 		Assert.assertEquals(expectedOutput, output);
 	}
 
+	@Test
+	public void countsErrorsByType() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.getUpdateCenter(Mockito
+						.any(HttpRetrievalService.class))).thenThrow(
+				new PluginHttpException(503));
+		macro.setHttpRetrievalService(httpRetrievalService);
+		macro.setSubRenderer(subRenderer);
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "cucumber-reports");
+		Counter errors = Metrics.getInstance().counter(
+				"execute.errors.PluginHttpException");
+		long before = errors.getCount();
+		macro.execute(inputMap, null, new RenderContext());
+		Assert.assertEquals(before + 1, errors.getCount());
+	}
+
 	@Test
 	public void ioExceptionThrown() throws MacroException, IOException,
 			PluginHttpException, ParseException {
 		Mockito.when(
-				jenkinsRetriever.retrieveUpdateCenterDetails(Mockito
+				jenkinsRetriever.getUpdateCenter(Mockito
 						.any(HttpRetrievalService.class))).thenThrow(
 				new IOException("IOException message"));
 		macro.setHttpRetrievalService(httpRetrievalService);
@@ -204,10 +231,11 @@ public class JenkinsPluginInfoMacroTest {
 	public void getStatsParserPluginHttpExceptionThrown()
 			throws MacroException, IOException, PluginHttpException {
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
-						Mockito.anyString())).thenThrow(
-				new PluginHttpException(300));
+						Mockito.anyString())).thenReturn(
+				new StatsCache.Entry(null, null, 0, new PluginHttpException(
+						300)));
 		macro.setHttpRetrievalService(httpRetrievalService);
 		macro.setSubRenderer(subRenderer);
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -226,7 +254,7 @@ public class JenkinsPluginInfoMacroTest {
 	public void getStatsParserOtherExceptionThrown() throws MacroException,
 			IOException, PluginHttpException {
 		Mockito.when(
-				jenkinsRetriever.retrieveStatsResponse(
+				jenkinsRetriever.getStats(
 						Mockito.any(HttpRetrievalService.class),
 						Mockito.anyString())).thenThrow(
 				new NullPointerException("npe"));
@@ -239,6 +267,430 @@ public class JenkinsPluginInfoMacroTest {
 		assertOutputSuccess(output);
 	}
 
+	@Test
+	public void renderedFragmentIsCached() throws MacroException,
+			IOException, PluginHttpException {
+		String statsString = loadTextFile("analysis-collector.stats.json");
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(statsString));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertEquals(output,
+				macro.execute(inputMap, null, new RenderContext()));
+		Mockito.verify(subRenderer, Mockito.times(1)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+
+		inputMap.put("jiraComponent", "other");
+		macro.execute(inputMap, null, new RenderContext());
+		Mockito.verify(subRenderer, Mockito.times(2)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+	}
+
+	@Test
+	public void fragmentsAreNotSharedAcrossSpacesAndExports()
+			throws MacroException, IOException, PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		macro.execute(inputMap, null, new PageContext("JENKINS"));
+		macro.execute(inputMap, null, new PageContext("JENKINS"));
+		Mockito.verify(subRenderer, Mockito.times(1)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+
+		macro.execute(inputMap, null, new PageContext("OTHER"));
+		Mockito.verify(subRenderer, Mockito.times(2)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+
+		RenderContext export = new PageContext("JENKINS");
+		export.setOutputType("pdf");
+		macro.execute(inputMap, null, export);
+		Mockito.verify(subRenderer, Mockito.times(3)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+	}
+
+	@Test
+	public void changedSnapshotsAreRenderedAgain() throws MacroException,
+			IOException, PluginHttpException, ParseException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		macro.execute(inputMap, null, new RenderContext());
+
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("subversion.stats.json")));
+		macro.execute(inputMap, null, new RenderContext());
+		Mockito.verify(subRenderer, Mockito.times(2)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+
+		UpdateCenterSnapshot current = jenkinsRetriever
+				.getUpdateCenter(httpRetrievalService);
+		Mockito.when(
+				jenkinsRetriever.getUpdateCenter(Mockito
+						.any(HttpRetrievalService.class))).thenReturn(
+				new UpdateCenterSnapshot(current.getPlugins(), System
+						.currentTimeMillis()));
+		macro.execute(inputMap, null, new RenderContext());
+		Mockito.verify(subRenderer, Mockito.times(3)).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+	}
+
+	@Test
+	public void statsAreFetchedWhileLoadingUpdateCenter()
+			throws MacroException, IOException, PluginHttpException,
+			ParseException {
+		final CountDownLatch statsRequested = new CountDownLatch(1);
+		final UpdateCenterSnapshot updateCenter = jenkinsRetriever
+				.getUpdateCenter(httpRetrievalService);
+		final StatsCache.Entry stats = statsEntry(loadTextFile("analysis-collector.stats.json"));
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenAnswer(
+				new Answer<StatsCache.Entry>() {
+					public StatsCache.Entry answer(InvocationOnMock invocation) {
+						statsRequested.countDown();
+						return stats;
+					}
+				});
+		Mockito.when(
+				jenkinsRetriever.getUpdateCenter(Mockito
+						.any(HttpRetrievalService.class))).thenAnswer(
+				new Answer<UpdateCenterSnapshot>() {
+					public UpdateCenterSnapshot answer(
+							InvocationOnMock invocation) throws Throwable {
+						// only returns if the stats are requested meanwhile
+						Assert.assertTrue(statsRequested.await(5,
+								TimeUnit.SECONDS));
+						return updateCenter;
+					}
+				});
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		assertOutputSuccess(output);
+		Assert.assertTrue(output.contains("|| Usage |"));
+	}
+
+	@Test
+	public void macrosOfPageShareUpdateCenterAndPrefetchStats()
+			throws MacroException, IOException, PluginHttpException,
+			ParseException, InterruptedException {
+		final StatsCache.Entry stats = statsEntry(loadTextFile("analysis-collector.stats.json"));
+		final CountDownLatch prefetched = new CountDownLatch(1);
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenAnswer(
+				new Answer<StatsCache.Entry>() {
+					public StatsCache.Entry answer(InvocationOnMock invocation)
+							throws Throwable {
+						if ("analysis-core".equals(invocation.getArguments()[1])) {
+							prefetched.countDown();
+						}
+						return stats;
+					}
+				});
+		ContentEntityObject page = Mockito.mock(ContentEntityObject.class);
+		Mockito.when(page.getContent()).thenReturn(
+				"{jenkins-plugin-info:analysis-collector}\n"
+						+ "{jenkins-plugin-info:pluginId=analysis-core}");
+		RenderContext renderContext = new PageContext(page);
+
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		assertOutputSuccess(macro.execute(inputMap, null, renderContext));
+		Assert.assertTrue(prefetched.await(5, TimeUnit.SECONDS));
+
+		inputMap.put("pluginId", "analysis-core");
+		assertOutputSuccess(macro.execute(inputMap, null, renderContext));
+		Mockito.verify(jenkinsRetriever, Mockito.times(1)).getUpdateCenter(
+				Mockito.any(HttpRetrievalService.class));
+		Mockito.verify(jenkinsRetriever, Mockito.times(1)).getStats(
+				Mockito.any(HttpRetrievalService.class),
+				Mockito.eq("analysis-core"));
+	}
+
+	@Test
+	public void freshStatsAreNotFetched() throws MacroException,
+			IOException, PluginHttpException {
+		Mockito.when(jenkinsRetriever.getFreshStats("analysis-collector"))
+				.thenReturn(statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		assertOutputSuccess(output);
+		Assert.assertTrue(output.contains("|| Usage |"));
+		Mockito.verify(jenkinsRetriever, Mockito.never()).getStats(
+				Mockito.any(HttpRetrievalService.class), Mockito.anyString());
+	}
+
+	@Test
+	public void statsAreLeftOutWhenFetchesAreSaturated()
+			throws MacroException, IOException, PluginHttpException,
+			InterruptedException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		final CountDownLatch release = new CountDownLatch(1);
+		Runnable blocked = new Runnable() {
+			public void run() {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					// released
+				}
+			}
+		};
+		try {
+			try {
+				while (true) {
+					BackgroundExecutors.fetch().execute(blocked);
+				}
+			} catch (RejectedExecutionException e) {
+				// saturated
+			}
+			Map<String, String> inputMap = new HashMap<String, String>();
+			inputMap.put("pluginId", "analysis-collector");
+			String output = macro.execute(inputMap, null, new RenderContext());
+			assertOutputSuccess(output);
+			Assert.assertFalse(output.contains("|| Usage |"));
+			Mockito.verify(jenkinsRetriever, Mockito.never()).getStats(
+					Mockito.any(HttpRetrievalService.class),
+					Mockito.anyString());
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void slowStatsAreLeftOutAfterDeadline() throws MacroException,
+			IOException, PluginHttpException {
+		final CountDownLatch release = new CountDownLatch(1);
+		final StatsCache.Entry stats = statsEntry(loadTextFile("analysis-collector.stats.json"));
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenAnswer(
+				new Answer<StatsCache.Entry>() {
+					public StatsCache.Entry answer(InvocationOnMock invocation)
+							throws Throwable {
+						release.await(5, TimeUnit.SECONDS);
+						return stats;
+					}
+				});
+		macro.setStatsDeadline(50);
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		try {
+			String output = macro.execute(inputMap, null, new RenderContext());
+			assertOutputSuccess(output);
+			Assert.assertFalse(output.contains("|| Usage |"));
+		} finally {
+			release.countDown();
+		}
+	}
+
+	@Test
+	public void svgChart() throws MacroException, IOException,
+			PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		inputMap.put("chart", "svg");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		assertOutputSuccess(output);
+		Assert.assertTrue(output.contains("|| Usage | <svg "));
+		Assert.assertFalse(output.contains("chart.googleapis.com"));
+
+		inputMap.remove("chart");
+		output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertFalse(output.contains("<svg"));
+		Assert.assertTrue(output.contains("chart.googleapis.com"));
+	}
+
+	@Test
+	public void svgChartFallsBackToImageIfPlaceholderIsNotKept()
+			throws MacroException, IOException, PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		// a renderer repeating the markup, placeholder included
+		Mockito.when(
+				subRenderer.render(Mockito.anyString(),
+						Mockito.any(RenderContext.class))).thenAnswer(
+				new Answer<String>() {
+					public String answer(InvocationOnMock invocation)
+							throws Throwable {
+						String wiki = (String) invocation.getArguments()[0];
+						return wiki + wiki;
+					}
+				});
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		inputMap.put("chart", "svg");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertFalse(output.contains("<svg"));
+		Assert.assertFalse(output.contains("jenkinspluginsvgchart"));
+		Assert.assertTrue(output.contains("|| Usage | !https://chart.googleapis.com"));
+	}
+
+	@Test
+	public void statisticsLinkResolvesInSpaceOfPage() throws MacroException,
+			IOException, PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		Assert.assertTrue(macro.execute(inputMap, null, new PageContext("DOCS"))
+				.contains("[(?)|Plugin Installation Statistics]"));
+		Assert.assertTrue(macro.execute(inputMap, null, new RenderContext())
+				.contains("[(?)|JENKINS:Plugin Installation Statistics]"));
+
+		inputMap.put("output", "html");
+		Assert.assertTrue(macro.execute(inputMap, null, new PageContext("DOCS"))
+				.contains("/display/DOCS/Plugin+Installation+Statistics"));
+		macro.setStatsSpaceKey("STATS");
+		Assert.assertTrue(macro.execute(inputMap, null, new RenderContext())
+				.contains("/display/STATS/Plugin+Installation+Statistics"));
+	}
+
+	@Test
+	public void htmlOutputSkipsWikiRenderer() throws MacroException,
+			IOException, PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		inputMap.put("output", "html");
+		String output = macro.execute(inputMap, null, new RenderContext());
+
+		Mockito.verify(subRenderer, Mockito.never()).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+		Assert.assertTrue(output, output
+				.startsWith("<h4>Plugin Information</h4>\n"));
+		Assert.assertTrue(output, output.contains(
+				"<th class=\"confluenceTh\">Plugin ID</th><td class=\"confluenceTd\">analysis-collector</td>"));
+		Assert.assertTrue(output, output.contains(
+				"<a href=\"http://updates.jenkins-ci.org/latest/analysis-collector.hpi\">"));
+		// urls are escaped
+		Assert.assertTrue(output, output.contains(
+				"IssueNavigator.jspa?mode=hide&amp;reset=true&amp;jqlQuery="));
+		Assert.assertTrue(output, output.contains("<img src=\"https://chart.googleapis.com/chart?"));
+		Assert.assertFalse(output, output.contains("[Open Issues|"));
+	}
+
+	@Test
+	public void htmlOutputWithSvgChart() throws MacroException, IOException,
+			PluginHttpException {
+		Mockito.when(
+				jenkinsRetriever.getStats(
+						Mockito.any(HttpRetrievalService.class),
+						Mockito.anyString())).thenReturn(
+				statsEntry(loadTextFile("analysis-collector.stats.json")));
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		inputMap.put("output", "html");
+		inputMap.put("chart", "svg");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertTrue(output, output.contains("<td class=\"confluenceTd\"><svg "));
+		Assert.assertFalse(output, output.contains("chart.googleapis.com"));
+	}
+
+	@Test
+	public void htmlOutputForMissingPlugin() throws MacroException {
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "does-not-exist");
+		inputMap.put("output", "html");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertTrue(output, output.contains(
+				"<th class=\"confluenceTh\">No Information For This Plugin</th>"));
+		Mockito.verify(subRenderer, Mockito.never()).render(
+				Mockito.anyString(), Mockito.any(RenderContext.class));
+	}
+
+	@Test
+	public void usedBy() throws MacroException {
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-core");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertFalse(output.contains("|| Used By |"));
+
+		inputMap.put("usedBy", "true");
+		output = macro.execute(inputMap, null, new RenderContext());
+		assertOutputSuccess(output);
+		Assert.assertTrue(output, output.contains(
+				"|| Used By | [analysis-collector|https://wiki.jenkins-ci.org/display/JENKINS/Analysis+Collector+Plugin] \\\\ "));
+		Assert.assertTrue(output, output.contains(" \\\\ [email-ext|"));
+		Assert.assertTrue(output, output.contains(" (optional) \\\\ "));
+
+		inputMap.put("output", "html");
+		output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertTrue(output, output.contains(
+				"<th class=\"confluenceTh\">Used By</th><td class=\"confluenceTd\"><a href=\"https://wiki.jenkins-ci.org/display/JENKINS/Analysis+Collector+Plugin\">analysis-collector</a><br />"));
+	}
+
+	@Test
+	public void usedByNone() throws MacroException {
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "analysis-collector");
+		inputMap.put("usedBy", "true");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertTrue(output, output.contains("|| Used By | (none) |"));
+	}
+
+	@Test
+	public void transitiveDependencies() throws MacroException {
+		Map<String, String> inputMap = new HashMap<String, String>();
+		inputMap.put("pluginId", "email-ext");
+		inputMap.put("transitive", "true");
+		String output = macro.execute(inputMap, null, new RenderContext());
+		assertOutputSuccess(output);
+		Assert.assertTrue(output, output.contains(" (version:1.1, optional)"));
+		Assert.assertTrue(output, output.contains(" (version:1.509.1) \\\\ "));
+		Assert.assertTrue(output, output.contains("[javadoc|"));
+
+		inputMap.put("excludeOptional", "true");
+		output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertFalse(output, output.contains("optional"));
+		Assert.assertFalse(output, output.contains("analysis-core"));
+		Assert.assertTrue(output, output.contains("[javadoc|"));
+
+		inputMap.remove("transitive");
+		output = macro.execute(inputMap, null, new RenderContext());
+		Assert.assertFalse(output, output.contains("analysis-core"));
+		Assert.assertFalse(output, output.contains("[javadoc|"));
+		Assert.assertTrue(output, output.contains("[token-macro|"));
+	}
+
 	@Test
 	public void missingPlugin() throws MacroException {
 		Map<String, String> inputMap = new HashMap<String, String>();
@@ -273,6 +725,15 @@ public class JenkinsPluginInfoMacroTest {
 		Assert.assertEquals(RenderMode.NO_RENDER, macro.getBodyRenderMode());
 	}
 
+	private StatsCache.Entry statsEntry(String statsString) {
+		try {
+			return new StatsCache.Entry(new StatsInfoParser("my-plugin",
+					statsString), statsString, Long.MAX_VALUE, null);
+		} catch (ParseException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
 	private String loadTextFile(String fileName)
 			throws UnsupportedEncodingException {
 		final InputStream stream = JenkinsPluginInfoMacroTest.class
@@ -1,15 +1,21 @@
 package org.jenkinsci.confluence.plugins;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import junit.framework.Assert;
 
 import org.apache.commons.io.IOUtils;
 import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
+import org.jenkinsci.confluence.plugins.metrics.Metrics;
+import org.jenkinsci.confluence.plugins.metrics.Timer;
 import org.json.simple.parser.ParseException;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mock;
@@ -18,6 +24,7 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.atlassian.confluence.util.http.HttpRequest;
 import com.atlassian.confluence.util.http.HttpResponse;
 import com.atlassian.confluence.util.http.HttpRetrievalService;
 
@@ -29,44 +36,45 @@ public class JenkinsRetrieverTest {
 	private HttpRetrievalService httpRetrievalService = PowerMockito
 			.mock(HttpRetrievalService.class);
 
+	private HttpRequest request = Mockito.mock(HttpRequest.class);
+
 	private JenkinsRetriever jenkinsRetriever = new JenkinsRetriever();
 
+	@Before
+	public void buildUp() {
+		Mockito.when(
+				httpRetrievalService.getDefaultRequestFor(Mockito.anyString()))
+				.thenReturn(request);
+	}
+
 	@Test
 	public void testRetrieveUpdateCenterDetailsSuccess() throws IOException,
 			PluginHttpException, ParseException {
-		String returnJson = "{" + "\"employees\": [" + "{"
-				+ "\"firstName\": \"Peter\"," + "\"lastName\": \"Jones\"" + "}"
-				+ "]}";
-		PowerMockito.mockStatic(IOUtils.class);
-		HttpResponse response = Mockito.mock(HttpResponse.class);
-		Mockito.when(response.getStatusCode()).thenReturn(200);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenReturn(
-				response);
-		Mockito.when(IOUtils.toString(Mockito.any(InputStream.class)))
-				.thenReturn(returnJson);
-		JSONObject returned = jenkinsRetriever
+		String returnJson = "{" + "\"plugins\": {" + "\"git\": {"
+				+ "\"name\": \"git\"," + "\"version\": \"1.5.0\"" + "}"
+				+ "}}";
+		HttpResponse response = mockResponse(200, returnJson, null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
+		Map<String, PluginInfo> returned = jenkinsRetriever
 				.retrieveUpdateCenterDetails(httpRetrievalService);
 		Assert.assertEquals(1, returned.size());
-		Assert.assertEquals(1, ((JSONArray) returned.get("employees")).size());
+		Assert.assertEquals("1.5.0", returned.get("git").getVersion());
 	}
 
 	@Test
 	public void testRetrieveUpdateCenterDetailsTrim() throws IOException,
 			PluginHttpException, ParseException {
-		String returnJson = "updateCenter.post(" + "{" + "\"employees\": ["
-				+ "{" + "\"firstName\": \"Peter\"," + "\"lastName\": \"Jones\""
-				+ "}" + "]}" + ");";
-		PowerMockito.mockStatic(IOUtils.class);
-		HttpResponse response = Mockito.mock(HttpResponse.class);
-		Mockito.when(response.getStatusCode()).thenReturn(200);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenReturn(
-				response);
-		Mockito.when(IOUtils.toString(Mockito.any(InputStream.class)))
-				.thenReturn(returnJson);
-		JSONObject returned = jenkinsRetriever
+		String returnJson = "updateCenter.post(" + "{" + "\"plugins\": {"
+				+ "\"git\": {" + "\"name\": \"git\"," + "\"version\": \"1.5.0\""
+				+ "}" + "}}" + ");";
+		HttpResponse response = mockResponse(200, returnJson, null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
+		Map<String, PluginInfo> returned = jenkinsRetriever
 				.retrieveUpdateCenterDetails(httpRetrievalService);
 		Assert.assertEquals(1, returned.size());
-		Assert.assertEquals(1, ((JSONArray) returned.get("employees")).size());
+		Assert.assertEquals("1.5.0", returned.get("git").getVersion());
 	}
 
 	@Test(expected = PluginHttpException.class)
@@ -74,8 +82,8 @@ public class JenkinsRetrieverTest {
 			throws IOException, PluginHttpException, ParseException {
 		HttpResponse response = Mockito.mock(HttpResponse.class);
 		Mockito.when(response.getStatusCode()).thenReturn(300);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenReturn(
-				response);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
 		jenkinsRetriever.retrieveUpdateCenterDetails(httpRetrievalService);
 	}
 
@@ -84,19 +92,34 @@ public class JenkinsRetrieverTest {
 			throws IOException, PluginHttpException, ParseException {
 		HttpResponse response = Mockito.mock(HttpResponse.class);
 		Mockito.when(response.getStatusCode()).thenReturn(300);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenThrow(
-				new IOException());
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenThrow(new IOException());
 		jenkinsRetriever.retrieveUpdateCenterDetails(httpRetrievalService);
 	}
 
+	@Test
+	public void failedUpdateCenterFetchIsTimed() throws IOException,
+			PluginHttpException, ParseException {
+		Timer fetch = Metrics.getInstance().timer("updateCenter.fetch");
+		long before = fetch.getCount();
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenThrow(new IOException());
+		try {
+			jenkinsRetriever.retrieveUpdateCenter(httpRetrievalService, null);
+			Assert.fail();
+		} catch (IOException e) {
+			// expected
+		}
+		Assert.assertEquals(before + 1, fetch.getCount());
+	}
+
 	@Test
 	public void testRetrieveStatsResponseSuccess() throws IOException,
 			PluginHttpException {
 		PowerMockito.mockStatic(IOUtils.class);
-		HttpResponse response = Mockito.mock(HttpResponse.class);
-		Mockito.when(response.getStatusCode()).thenReturn(200);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenReturn(
-				response);
+		HttpResponse response = mockResponse(200, "fred      ", null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
 		Mockito.when(IOUtils.toString(Mockito.any(InputStream.class)))
 				.thenReturn("fred      ");
 		Assert.assertEquals("fred", jenkinsRetriever.retrieveStatsResponse(
@@ -108,17 +131,185 @@ public class JenkinsRetrieverTest {
 			throws IOException, PluginHttpException {
 		HttpResponse response = Mockito.mock(HttpResponse.class);
 		Mockito.when(response.getStatusCode()).thenReturn(300);
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenReturn(
-				response);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
 		jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, "dummy");
 	}
 
 	@Test(expected = IOException.class)
 	public void testRetrieveStatsResponseIOException() throws IOException,
 			PluginHttpException {
-		Mockito.when(httpRetrievalService.get(Mockito.anyString())).thenThrow(
-				new IOException());
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenThrow(new IOException());
+		jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, "dummy");
+	}
+
+	@Test
+	public void testRetrieveUpdateCenterNotModified() throws IOException,
+			PluginHttpException, ParseException {
+		HttpResponse changed = mockResponse(200, "{\"plugins\": {}}",
+				"\"v1\"", "Tue, 01 Oct 2013 10:00:00 GMT");
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(changed);
+		UpdateCenterSnapshot first = jenkinsRetriever.retrieveUpdateCenter(
+				httpRetrievalService, null);
+		Assert.assertEquals("\"v1\"", first.getValidators().getEtag());
+
+		HttpRequest request = Mockito.mock(HttpRequest.class);
+		Mockito.when(httpRetrievalService.getDefaultRequestFor(Mockito.anyString()))
+				.thenReturn(request);
+		HttpResponse notModified = mockResponse(304, null, null, null);
+		Mockito.when(httpRetrievalService.get(request)).thenReturn(notModified);
+		UpdateCenterSnapshot second = jenkinsRetriever.retrieveUpdateCenter(
+				httpRetrievalService, first);
+
+		Mockito.verify(request).setHeader("If-None-Match", "\"v1\"");
+		Mockito.verify(request).setHeader("If-Modified-Since",
+				"Tue, 01 Oct 2013 10:00:00 GMT");
+		Mockito.verify(notModified, Mockito.never()).getResponse();
+		Assert.assertEquals(first.getId(), second.getId());
+		Assert.assertSame(first.getPlugins(), second.getPlugins());
+		Assert.assertSame(first.getValidators(), second.getValidators());
+	}
+
+	@Test
+	public void testRetrieveUpdateCenterChanged() throws IOException,
+			PluginHttpException, ParseException {
+		HttpResponse response = mockResponse(200, "{\"plugins\": {"
+				+ "\"git\": {\"version\": \"1.5.0\"},"
+				+ "\"subversion\": {\"version\": \"1.0\"}}}", null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
+		UpdateCenterSnapshot first = jenkinsRetriever.retrieveUpdateCenter(
+				httpRetrievalService, null);
+		Assert.assertNull(first.getChanges());
+
+		HttpResponse changed = mockResponse(200, "{\"plugins\": {"
+				+ "\"git\": {\"version\": \"1.5.1\"},"
+				+ "\"subversion\": {\"version\": \"1.0\"}}}", null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(changed);
+		UpdateCenterSnapshot second = jenkinsRetriever.retrieveUpdateCenter(
+				httpRetrievalService, first);
+
+		Assert.assertEquals("1.5.1", second.getPlugin("git").getVersion());
+		Assert.assertSame(first.getPlugin("subversion"),
+				second.getPlugin("subversion"));
+		Assert.assertEquals(first.getId(), second.getChanges().getPreviousId());
+		Assert.assertEquals(Collections.singleton("git"), second
+				.getChanges().getChanged());
+	}
+
+	@Test
+	public void testRetrieveStatsResponseNotModified() throws IOException,
+			PluginHttpException {
+		HttpResponse changed = mockResponse(200, "{\"installations\": {}}",
+				"\"s1\"", null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(changed);
+		String first = jenkinsRetriever.retrieveStatsResponse(
+				httpRetrievalService, "dummy");
+
+		HttpRequest request = Mockito.mock(HttpRequest.class);
+		Mockito.when(httpRetrievalService.getDefaultRequestFor(Mockito.anyString()))
+				.thenReturn(request);
+		HttpResponse notModified = mockResponse(304, null, null, null);
+		Mockito.when(httpRetrievalService.get(request)).thenReturn(notModified);
+		String second = jenkinsRetriever.retrieveStatsResponse(
+				httpRetrievalService, "dummy");
+
+		Mockito.verify(request).setHeader("If-None-Match", "\"s1\"");
+		Mockito.verify(notModified, Mockito.never()).getResponse();
+		Assert.assertEquals(first, second);
+	}
+
+	@Test
+	public void testRetrieveStatsResponseWithoutValidators()
+			throws IOException, PluginHttpException {
+		HttpResponse response = mockResponse(200, "{\"installations\": {}}",
+				null, null);
+		Mockito.when(httpRetrievalService.get(Mockito.any(HttpRequest.class)))
+				.thenReturn(response);
 		jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, "dummy");
+		jenkinsRetriever.retrieveStatsResponse(httpRetrievalService, "dummy");
+		Mockito.verify(httpRetrievalService, Mockito.times(2)).get(request);
+		Mockito.verify(request, Mockito.never()).setHeader(
+				Mockito.eq("If-None-Match"), Mockito.anyString());
+		Mockito.verify(request, Mockito.never()).setHeader(
+				Mockito.eq("If-Modified-Since"), Mockito.anyString());
+	}
+
+	@Test
+	public void testRequestsCompressedDocuments() throws IOException,
+			PluginHttpException, ParseException {
+		HttpResponse response = mockResponse(200, "{\"plugins\": {}}", null,
+				null);
+		Mockito.when(httpRetrievalService.get(request)).thenReturn(response);
+		jenkinsRetriever.retrieveUpdateCenter(httpRetrievalService, null);
+		Mockito.verify(request).setHeader("Accept-Encoding", "gzip");
+	}
+
+	@Test
+	public void testRetrieveGzippedUpdateCenter() throws IOException,
+			PluginHttpException, ParseException {
+		HttpResponse response = Mockito.mock(HttpResponse.class);
+		Mockito.when(response.getStatusCode()).thenReturn(200);
+		Mockito.when(response.getResponse()).thenReturn(
+				new ByteArrayInputStream(gzip("updateCenter.post({\"plugins\": {\"git\": {\"version\": \"1.5.0\"}}});")));
+		Mockito.when(httpRetrievalService.get(request)).thenReturn(response);
+		Map<String, PluginInfo> returned = jenkinsRetriever
+				.retrieveUpdateCenterDetails(httpRetrievalService);
+		Assert.assertEquals("1.5.0", returned.get("git").getVersion());
+	}
+
+	@Test
+	public void testRetrieveGzippedStats() throws IOException,
+			PluginHttpException {
+		HttpResponse response = Mockito.mock(HttpResponse.class);
+		Mockito.when(response.getStatusCode()).thenReturn(200);
+		Mockito.when(response.getResponse()).thenReturn(
+				new ByteArrayInputStream(gzip("{\"installations\": {}}\n")));
+		Mockito.when(httpRetrievalService.get(request)).thenReturn(response);
+		Assert.assertEquals("{\"installations\": {}}", jenkinsRetriever
+				.retrieveStatsResponse(httpRetrievalService, "dummy"));
+	}
+
+	@Test
+	public void testDecompressPassesPlainDocumentsThrough()
+			throws IOException {
+		Assert.assertEquals("{}", IOUtils.toString(JenkinsRetriever
+				.decompress(new ByteArrayInputStream("{}".getBytes("UTF-8")))));
+		Assert.assertEquals("", IOUtils.toString(JenkinsRetriever
+				.decompress(new ByteArrayInputStream(new byte[0]))));
+		Assert.assertEquals("\u001f", IOUtils.toString(JenkinsRetriever
+				.decompress(new ByteArrayInputStream(new byte[] { 0x1f }))));
+	}
+
+	private static byte[] gzip(String document) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		GZIPOutputStream out = new GZIPOutputStream(bytes);
+		out.write(document.getBytes("UTF-8"));
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	private HttpResponse mockResponse(int statusCode, String body,
+			String etag, String lastModified) throws IOException {
+		HttpResponse response = Mockito.mock(HttpResponse.class);
+		Mockito.when(response.getStatusCode()).thenReturn(statusCode);
+		if (body != null) {
+			Mockito.when(response.getResponse()).thenReturn(
+					new ByteArrayInputStream(body.getBytes("UTF-8")));
+		}
+		if (etag != null) {
+			Mockito.when(response.getHeaders("ETag")).thenReturn(
+					new String[] { etag });
+		}
+		if (lastModified != null) {
+			Mockito.when(response.getHeaders("Last-Modified")).thenReturn(
+					new String[] { lastModified });
+		}
+		return response;
 	}
 
 }
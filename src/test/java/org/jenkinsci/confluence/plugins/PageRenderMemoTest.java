@@ -0,0 +1,220 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.renderer.PageContext;
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+import com.atlassian.renderer.RenderContext;
+
+public class PageRenderMemoTest {
+
+	@Test
+	public void findsPluginIdsInMarkup() {
+		assertEquals(
+				Arrays.asList("git", "subversion", "cvs", "mercurial"),
+				new ArrayList<String>(PageRenderMemo.pluginIdsIn("h1. SCM\n"
+						+ "{jenkins-plugin-info:pluginId=git}\n"
+						+ "{jenkins-plugin-info:subversion|usedBy=true}\n"
+						+ "{hudson-plugin-info:jiraComponent=cvs-plugin | pluginId = cvs}\n"
+						+ "{jenkins-plugin-info:git|output=html}\n"
+						+ "{jenkins-plugin-info:output=html|mercurial}\n"
+						+ "{jenkins-plugin-info}\n"
+						+ "{other-macro:pluginId=perforce}")));
+	}
+
+	@Test
+	public void findsPluginIdsInStorageFormat() {
+		assertEquals(
+				Arrays.asList("git", "subversion", "cvs", "mercurial"),
+				new ArrayList<String>(PageRenderMemo.pluginIdsIn("<h1>SCM</h1>"
+						+ "<ac:structured-macro ac:name=\"jenkins-plugin-info\" ac:schema-version=\"1\">"
+						+ "<ac:parameter ac:name=\"pluginId\">git</ac:parameter></ac:structured-macro>"
+						+ "<p><ac:structured-macro ac:name=\"jenkins-plugin-info\">"
+						+ "<ac:parameter ac:name=\"\">subversion</ac:parameter>"
+						+ "<ac:parameter ac:name=\"usedBy\">true</ac:parameter></ac:structured-macro></p>"
+						+ "<ac:macro ac:name=\"hudson-plugin-info\">\n"
+						+ "  <ac:parameter ac:name=\"jiraComponent\">cvs-plugin</ac:parameter>\n"
+						+ "  <ac:parameter ac:name=\"pluginId\"> cvs </ac:parameter>\n</ac:macro>"
+						+ "<ac:structured-macro ac:name=\"jenkins-plugin-info\">"
+						+ "<ac:parameter ac:name=\"0\">mercurial</ac:parameter></ac:structured-macro>"
+						+ "<ac:structured-macro ac:name=\"jenkins-plugin-info\" />"
+						+ "<ac:structured-macro ac:name=\"other-macro\">"
+						+ "<ac:parameter ac:name=\"pluginId\">perforce</ac:parameter></ac:structured-macro>")));
+	}
+
+	@Test
+	public void fetchesStatsOfPluginsOnStorageFormatPage() {
+		PageRenderMemo memo = PageRenderMemo.of(page("<ac:structured-macro ac:name=\"jenkins-plugin-info\">"
+				+ "<ac:parameter ac:name=\"pluginId\">git</ac:parameter></ac:structured-macro>"
+				+ "<ac:structured-macro ac:name=\"jenkins-plugin-info\">"
+				+ "<ac:parameter ac:name=\"pluginId\">cvs</ac:parameter></ac:structured-macro>"));
+		RecordingFetcher fetcher = new RecordingFetcher(Integer.MAX_VALUE);
+		assertNotNull(memo.fetchStats("cvs", fetcher));
+		assertEquals(Arrays.asList("cvs", "git"), fetcher.fetched);
+	}
+
+	@Test
+	public void isAttachedToRenderContext() {
+		RenderContext renderContext = new RenderContext();
+		PageRenderMemo memo = PageRenderMemo.of(renderContext);
+		assertSame(memo, PageRenderMemo.of(renderContext));
+		assertTrue(memo != PageRenderMemo.of(new RenderContext()));
+	}
+
+	@Test
+	public void pagesDoNotShareALock() throws Exception {
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			Future<PageRenderMemo> memo;
+			synchronized (PageRenderMemo.class) {
+				memo = other.submit(new Callable<PageRenderMemo>() {
+					public PageRenderMemo call() {
+						return PageRenderMemo.of(new RenderContext());
+					}
+				});
+				assertNotNull(memo.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test
+	public void fetchesStatsOfPluginsOnPageOnce() {
+		PageRenderMemo memo = PageRenderMemo.of(page("{jenkins-plugin-info:git}{jenkins-plugin-info:cvs}"));
+		RecordingFetcher fetcher = new RecordingFetcher(Integer.MAX_VALUE);
+
+		Future<StatsCache.Entry> cvs = memo.fetchStats("cvs", fetcher);
+		assertEquals(Arrays.asList("cvs", "git"), fetcher.fetched);
+		assertSame(cvs, memo.getStats("cvs"));
+		assertSame(memo.getStats("git"), memo.fetchStats("git", fetcher));
+		assertNotNull(memo.fetchStats("svn", fetcher));
+		assertEquals(Arrays.asList("cvs", "git", "svn"), fetcher.fetched);
+	}
+
+	@Test
+	public void withoutPageOnlyFetchesGivenPlugin() {
+		PageRenderMemo memo = PageRenderMemo.of(new RenderContext());
+		RecordingFetcher fetcher = new RecordingFetcher(Integer.MAX_VALUE);
+		assertNotNull(memo.fetchStats("git", fetcher));
+		assertEquals(Collections.singletonList("git"), fetcher.fetched);
+	}
+
+	@Test
+	public void rejectedFetchesAreLeftToTheirMacros() {
+		PageRenderMemo memo = PageRenderMemo.of(page("{jenkins-plugin-info:git}{jenkins-plugin-info:cvs}"
+				+ "{jenkins-plugin-info:svn}"));
+		RecordingFetcher fetcher = new RecordingFetcher(1);
+
+		assertNotNull(memo.fetchStats("cvs", fetcher));
+		assertNull(memo.getStats("git"));
+		assertNull(memo.getStats("svn"));
+		assertNull(memo.fetchStats("git", fetcher));
+
+		fetcher.accepted = Integer.MAX_VALUE;
+		assertNotNull(memo.fetchStats("git", fetcher));
+		assertEquals(Arrays.asList("cvs", "git"), fetcher.fetched);
+	}
+
+	@Test
+	public void concurrentMacrosFetchEachPluginOnce() throws Exception {
+		final PageRenderMemo memo = PageRenderMemo.of(page("{jenkins-plugin-info:a}{jenkins-plugin-info:b}"
+				+ "{jenkins-plugin-info:c}{jenkins-plugin-info:d}"));
+		final RecordingFetcher fetcher = new RecordingFetcher(Integer.MAX_VALUE);
+		ExecutorService macros = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<?>> renders = new ArrayList<Future<?>>();
+			for (final String pluginId : Arrays.asList("a", "b", "c", "d", "a", "b", "c", "d")) {
+				renders.add(macros.submit(new Runnable() {
+					public void run() {
+						assertNotNull(memo.fetchStats(pluginId, fetcher));
+					}
+				}));
+			}
+			for (Future<?> render : renders) {
+				render.get(5, TimeUnit.SECONDS);
+			}
+		} finally {
+			macros.shutdown();
+		}
+		assertEquals(4, fetcher.fetched.size());
+		assertEquals(set("a", "b", "c", "d"), new LinkedHashSet<String>(fetcher.fetched));
+	}
+
+	@Test
+	public void sharesFirstUpdateCenter() throws Exception {
+		JenkinsRetriever jenkinsRetriever = Mockito
+				.mock(JenkinsRetriever.class);
+		UpdateCenterSnapshot first = new UpdateCenterSnapshot(
+				Collections.<String, PluginInfo> emptyMap(), 1L);
+		Mockito.when(
+				jenkinsRetriever.getUpdateCenter(Mockito
+						.any(HttpRetrievalService.class))).thenReturn(first,
+				new UpdateCenterSnapshot(
+						Collections.<String, PluginInfo> emptyMap(), 2L));
+		PageRenderMemo memo = PageRenderMemo.of(new RenderContext());
+
+		assertSame(first, memo.getUpdateCenter(jenkinsRetriever, null));
+		assertSame(first, memo.getUpdateCenter(jenkinsRetriever, null));
+		Mockito.verify(jenkinsRetriever, Mockito.times(1)).getUpdateCenter(
+				Mockito.any(HttpRetrievalService.class));
+	}
+
+	private static PageContext page(String content) {
+		ContentEntityObject page = Mockito.mock(ContentEntityObject.class);
+		Mockito.when(page.getContent()).thenReturn(content);
+		return new PageContext(page);
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Future<StatsCache.Entry> future() {
+		return Mockito.mock(Future.class);
+	}
+
+	/**
+	 * Records the plugins it fetches, rejecting fetches beyond the accepted
+	 * count.
+	 */
+	private static class RecordingFetcher implements
+			PageRenderMemo.StatsFetcher {
+
+		private final List<String> fetched = Collections
+				.synchronizedList(new ArrayList<String>());
+		private volatile int accepted;
+
+		RecordingFetcher(int accepted) {
+			this.accepted = accepted;
+		}
+
+		public Future<StatsCache.Entry> fetch(String pluginId) {
+			if (fetched.size() >= accepted) {
+				return null;
+			}
+			fetched.add(pluginId);
+			return future();
+		}
+	}
+
+	private static LinkedHashSet<String> set(String... values) {
+		return new LinkedHashSet<String>(Arrays.asList(values));
+	}
+}
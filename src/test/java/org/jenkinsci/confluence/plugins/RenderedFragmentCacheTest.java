@@ -0,0 +1,154 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.atlassian.confluence.renderer.PageContext;
+import com.atlassian.renderer.RenderContext;
+
+public class RenderedFragmentCacheTest {
+
+	private final RenderedFragmentCache cache = new RenderedFragmentCache(2);
+
+	@Test
+	public void keysIncludeAllParameters() {
+		cache.put(key("git", null, 1, 0), "git");
+		assertEquals("git", cache.get(key("git", null, 1, 0)));
+		assertNull(cache.get(key("git", "html", 1, 0)));
+		assertNull(cache.get(key("git", null, 1, 7)));
+		assertNull(cache.get(key("git", null, 2, 0)));
+		assertNull(cache.get(key("svn", null, 1, 0)));
+
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("pluginId", "git");
+		parameters.put("chart", "svg");
+		assertNull(cache.get(new RenderedFragmentCache.Key(parameters, 1, 0)));
+	}
+
+	@Test
+	public void keysCopyParameters() {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("pluginId", "git");
+		RenderedFragmentCache.Key key = new RenderedFragmentCache.Key(
+				parameters, 1, 0);
+		parameters.put("pluginId", "svn");
+		assertEquals(key("git", null, 1, 0), key);
+	}
+
+	@Test
+	public void keysIncludeRenderContext() {
+		Map<String, String> parameters = Collections.singletonMap("pluginId",
+				"git");
+		RenderContext export = new PageContext("JENKINS");
+		export.setOutputType("word");
+		cache.put(new RenderedFragmentCache.Key("git", parameters,
+				new PageContext("JENKINS"), 1, 0), "git");
+		assertEquals("git", cache.get(new RenderedFragmentCache.Key("git",
+				parameters, new PageContext("JENKINS"), 1, 0)));
+		assertNull(cache.get(new RenderedFragmentCache.Key("git", parameters,
+				new PageContext("OTHER"), 1, 0)));
+		assertNull(cache.get(new RenderedFragmentCache.Key("git", parameters,
+				export, 1, 0)));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() {
+		cache.put(key("git", null, 1, 0), "git");
+		cache.put(key("svn", null, 1, 0), "svn");
+		cache.get(key("git", null, 1, 0));
+		cache.put(key("cvs", null, 1, 0), "cvs");
+		assertEquals(2, cache.size());
+		assertEquals("git", cache.get(key("git", null, 1, 0)));
+		assertNull(cache.get(key("svn", null, 1, 0)));
+	}
+
+	@Test
+	public void newerUpdateCenterDropsOlderFragments() {
+		cache.put(key("git", null, 1, 0), "git");
+		cache.put(key("svn", null, 2, 0), "svn");
+		assertEquals(1, cache.size());
+		assertNull(cache.get(key("git", null, 1, 0)));
+
+		// a render that started before the newer update center was loaded
+		cache.put(key("cvs", null, 1, 0), "cvs");
+		assertNull(cache.get(key("cvs", null, 1, 0)));
+	}
+
+	@Test
+	public void advanceKeepsFragmentsOfUnaffectedPlugins() {
+		UpdateCenterSnapshot first = snapshot(
+				DependencyGraphTest.plugin("git",
+						DependencyGraphTest.dependency("credentials", "1.0",
+								false)),
+				DependencyGraphTest.plugin("credentials"),
+				DependencyGraphTest.plugin("cvs"));
+		cache.advance(first);
+		cache.put(pluginKey("git", first.getId()), "git");
+		cache.put(pluginKey("cvs", first.getId()), "cvs");
+
+		Map<String, PluginInfo> plugins = new HashMap<String, PluginInfo>(
+				first.getPlugins());
+		plugins.put("credentials", new PluginInfo("credentials", "2.0", null,
+				null, null, null, null, null, null, null, null));
+		UpdateCenterSnapshot second = first.successor(plugins, 2L, null);
+		cache.advance(second);
+
+		assertEquals(1, cache.size());
+		assertEquals("cvs", cache.get(pluginKey("cvs", second.getId())));
+		assertNull(cache.get(pluginKey("git", second.getId())));
+	}
+
+	@Test
+	public void advanceDropsFragmentsOfUnrelatedUpdateCenters() {
+		UpdateCenterSnapshot first = snapshot(DependencyGraphTest
+				.plugin("cvs"));
+		cache.advance(first);
+		cache.put(pluginKey("cvs", first.getId()), "cvs");
+
+		cache.advance(snapshot(DependencyGraphTest.plugin("cvs")));
+		assertEquals(0, cache.size());
+	}
+
+	@Test
+	public void advanceDropsFragmentsWithoutPluginId() {
+		UpdateCenterSnapshot first = snapshot(DependencyGraphTest
+				.plugin("cvs"));
+		cache.advance(first);
+		cache.put(key("cvs", null, first.getId(), 0), "cvs");
+
+		cache.advance(first.successor(first.getPlugins(), 2L, null));
+		assertEquals(0, cache.size());
+	}
+
+	private static UpdateCenterSnapshot snapshot(PluginInfo... plugins) {
+		Map<String, PluginInfo> map = new HashMap<String, PluginInfo>();
+		for (PluginInfo plugin : plugins) {
+			map.put(plugin.getName(), plugin);
+		}
+		return new UpdateCenterSnapshot(map, 1L);
+	}
+
+	private RenderedFragmentCache.Key pluginKey(String pluginId,
+			long updateCenterId) {
+		return new RenderedFragmentCache.Key(pluginId,
+				Collections.singletonMap("pluginId", pluginId),
+				updateCenterId, 0);
+	}
+
+	private RenderedFragmentCache.Key key(String pluginId, String output,
+			long updateCenterId, long statsId) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		parameters.put("pluginId", pluginId);
+		if (output != null) {
+			parameters.put("output", output);
+		}
+		return new RenderedFragmentCache.Key(parameters, updateCenterId,
+				statsId);
+	}
+}
@@ -0,0 +1,197 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SnapshotStoreTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private SnapshotStore store;
+
+	private Map<String, PluginInfo> plugins;
+
+	@Before
+	public void buildUp() throws Exception {
+		store = new SnapshotStore(new File(folder.getRoot(),
+				"jenkins-plugin-info/update-center.bin"));
+		plugins = UpdateCenterParser.parse(SnapshotStoreTest.class
+				.getResourceAsStream("/update-center.json"));
+	}
+
+	@Test
+	public void restoresSavedPlugins() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1234L));
+		UpdateCenterSnapshot restored = store.load();
+
+		assertEquals(plugins.keySet(), restored.getPlugins().keySet());
+		for (Map.Entry<String, PluginInfo> plugin : plugins.entrySet()) {
+			assertSameValues(plugin.getValue(),
+					restored.getPlugin(plugin.getKey()));
+		}
+		assertEquals(1234L, restored.getTimestamp());
+		assertNull(restored.getValidators());
+	}
+
+	@Test
+	public void decodesPluginsOnAccess() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1234L));
+		UpdateCenterSnapshot restored = store.load();
+
+		assertSameValues(plugins.get("git"), restored.getPlugin("git"));
+		assertSame(restored.getPlugin("git"), restored.getPlugin("git"));
+		assertNull(restored.getPlugin("no-such-plugin"));
+		assertTrue(restored.getPlugins().containsKey("subversion"));
+		assertEquals(plugins.size(), restored.getPlugins().size());
+	}
+
+	@Test
+	public void sharesRepeatedValues() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1234L));
+		UpdateCenterSnapshot restored = store.load();
+
+		assertEquals("1.424", restored.getPlugin("analysis-collector")
+				.getRequiredCore());
+		assertSame(restored.getPlugin("analysis-collector")
+				.getRequiredCore(), restored.getPlugin("analysis-core")
+				.getRequiredCore());
+	}
+
+	@Test
+	public void restoresValidators() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1234L,
+				new HttpValidators("\"abc\"", null)));
+		HttpValidators validators = store.load().getValidators();
+
+		assertEquals("\"abc\"", validators.getEtag());
+		assertNull(validators.getLastModified());
+	}
+
+	@Test
+	public void restoresPluginsWithMissingValues() throws Exception {
+		Map<String, PluginInfo> sparse = new HashMap<String, PluginInfo>();
+		sparse.put("empty", new PluginInfo(null, null, null, null, null,
+				null, null, null, null, null, null));
+		sparse.put("dependency", new PluginInfo("dependency", "1.0", null,
+				null, null, null, null, null, null,
+				new PluginInfo.Dependency[] { new PluginInfo.Dependency(
+						"empty", null, true) },
+				new PluginInfo.Developer[] { new PluginInfo.Developer(null,
+						"dev", null) }));
+		store.save(new UpdateCenterSnapshot(sparse, 1L));
+		UpdateCenterSnapshot restored = store.load();
+
+		assertSameValues(sparse.get("empty"), restored.getPlugin("empty"));
+		assertSameValues(sparse.get("dependency"),
+				restored.getPlugin("dependency"));
+	}
+
+	@Test
+	public void replacesSavedSnapshot() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1L));
+		Map<String, PluginInfo> newer = Collections.singletonMap("git",
+				plugins.get("git"));
+		store.save(new UpdateCenterSnapshot(newer, 2L));
+		UpdateCenterSnapshot restored = store.load();
+
+		assertEquals(newer.keySet(), restored.getPlugins().keySet());
+		assertEquals(2L, restored.getTimestamp());
+		assertFalse(new File(store.getFile().getPath() + ".tmp").exists());
+	}
+
+	@Test
+	public void replacesFileOfRestoredSnapshot() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1L));
+		UpdateCenterSnapshot restored = store.load();
+		store.save(new UpdateCenterSnapshot(Collections.singletonMap("git",
+				plugins.get("git")), 2L));
+
+		assertEquals(2L, store.load().getTimestamp());
+		// still readable, it doesn't read from the file
+		assertSameValues(plugins.get("git"), restored.getPlugin("git"));
+		assertEquals(plugins.keySet(), restored.getPlugins().keySet());
+	}
+
+	@Test
+	public void missingFileIsNotRestored() {
+		assertNull(store.load());
+	}
+
+	@Test
+	public void corruptFileIsNotRestored() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1L));
+		RandomAccessFile file = new RandomAccessFile(store.getFile(), "rw");
+		try {
+			file.seek(file.length() / 2);
+			int b = file.read();
+			file.seek(file.length() / 2);
+			file.write(b ^ 0xff);
+		} finally {
+			file.close();
+		}
+		assertNull(store.load());
+	}
+
+	@Test
+	public void truncatedFileIsNotRestored() throws Exception {
+		store.save(new UpdateCenterSnapshot(plugins, 1L));
+		RandomAccessFile file = new RandomAccessFile(store.getFile(), "rw");
+		try {
+			file.setLength(10);
+		} finally {
+			file.close();
+		}
+		assertNull(store.load());
+	}
+
+	private static void assertSameValues(PluginInfo expected,
+			PluginInfo actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertEquals(expected.getVersion(), actual.getVersion());
+		assertEquals(expected.getPreviousVersion(),
+				actual.getPreviousVersion());
+		assertEquals(expected.getBuildDate(), actual.getBuildDate());
+		assertEquals(expected.getReleaseTimestamp(),
+				actual.getReleaseTimestamp());
+		assertEquals(expected.getPreviousTimestamp(),
+				actual.getPreviousTimestamp());
+		assertEquals(expected.getRequiredCore(), actual.getRequiredCore());
+		assertEquals(expected.getScm(), actual.getScm());
+		assertEquals(expected.getWiki(), actual.getWiki());
+		assertEquals(expected.getDependencies().size(), actual
+				.getDependencies().size());
+		for (int i = 0; i < expected.getDependencies().size(); i++) {
+			PluginInfo.Dependency dependency = expected.getDependencies()
+					.get(i);
+			PluginInfo.Dependency restored = actual.getDependencies().get(i);
+			assertEquals(dependency.getName(), restored.getName());
+			assertEquals(dependency.getVersion(), restored.getVersion());
+			assertEquals(dependency.isOptional(), restored.isOptional());
+		}
+		assertEquals(expected.getDevelopers().size(), actual.getDevelopers()
+				.size());
+		for (int i = 0; i < expected.getDevelopers().size(); i++) {
+			PluginInfo.Developer developer = expected.getDevelopers().get(i);
+			PluginInfo.Developer restored = actual.getDevelopers().get(i);
+			assertEquals(developer.getName(), restored.getName());
+			assertEquals(developer.getDeveloperId(),
+					restored.getDeveloperId());
+			assertEquals(developer.getEmail(), restored.getEmail());
+		}
+	}
+}
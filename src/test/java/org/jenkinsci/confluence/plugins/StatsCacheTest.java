@@ -0,0 +1,269 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+public class StatsCacheTest {
+
+	private HttpRetrievalService httpRetrievalService = Mockito
+			.mock(HttpRetrievalService.class);
+
+	private JenkinsRetriever jenkinsRetriever = Mockito
+			.mock(JenkinsRetriever.class);
+
+	private StatsCache cache;
+
+	private String stats;
+
+	@Before
+	public void buildUp() throws Exception {
+		cache = new StatsCache(jenkinsRetriever, 2);
+		cache.setTtl(60000);
+		cache.setFailureTtl(60000);
+		stats = loadTextFile("/two-timeseries.stats.json");
+	}
+
+	@Test
+	public void servesCachedStatsWhileFresh() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenReturn(stats);
+
+		StatsCache.Entry first = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry second = cache.get(httpRetrievalService, "git");
+
+		assertNotNull(first.getStats());
+		assertSame(first, second);
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	@Test
+	public void unchangedStatsKeepTheirId() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenReturn(stats);
+		cache.setTtl(-1);
+
+		StatsCache.Entry first = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry second = cache.get(httpRetrievalService, "git");
+
+		assertNotSame(first, second);
+		assertEquals(first.getId(), second.getId());
+		assertSame(first.getStats(), second.getStats());
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	@Test
+	public void changedStatsGetNewId() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenReturn(stats,
+				loadTextFile("/one-timeseries.stats.json"));
+		cache.setTtl(-1);
+
+		StatsCache.Entry first = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry second = cache.get(httpRetrievalService, "git");
+
+		assertTrue(first.getId() != second.getId());
+	}
+
+	@Test
+	public void missingStatsAreCachedForFailureTtl() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenThrow(new PluginHttpException(404));
+
+		StatsCache.Entry first = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry second = cache.get(httpRetrievalService, "git");
+
+		assertNull(first.getStats());
+		assertEquals(0, first.getId());
+		assertEquals(404,
+				((PluginHttpException) first.getFailure()).getStatusCode());
+		assertSame(first, second);
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	@Test
+	public void missingStatsAreRetriedAfterFailureTtl() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenThrow(new PluginHttpException(404))
+				.thenReturn(stats);
+		cache.setFailureTtl(-1);
+
+		assertNull(cache.get(httpRetrievalService, "git").getStats());
+		StatsCache.Entry retried = cache.get(httpRetrievalService, "git");
+
+		assertNotNull(retried.getStats());
+		assertNull(retried.getFailure());
+	}
+
+	@Test
+	public void failedReloadKeepsPreviousStats() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenReturn(stats)
+				.thenThrow(new IOException("timeout"));
+		cache.setTtl(-1);
+
+		StatsCache.Entry loaded = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry failed = cache.get(httpRetrievalService, "git");
+		StatsCache.Entry retrying = cache.get(httpRetrievalService, "git");
+
+		assertSame(loaded.getStats(), failed.getStats());
+		assertEquals(loaded.getId(), failed.getId());
+		assertTrue(failed.getFailure() instanceof IOException);
+		// served until the retry delay passed
+		assertSame(failed, retrying);
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	@Test
+	public void getsFreshStatsWithoutLoading() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(
+						Mockito.eq(httpRetrievalService), Mockito.anyString()))
+				.thenReturn(stats);
+
+		assertNull(cache.getIfFresh("git"));
+		StatsCache.Entry loaded = cache.get(httpRetrievalService, "git");
+		assertSame(loaded, cache.getIfFresh("git"));
+		cache.setTtl(-1);
+		cache.get(httpRetrievalService, "subversion");
+		assertNull(cache.getIfFresh("subversion"));
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveStatsResponse(Mockito.eq(httpRetrievalService),
+						Mockito.anyString());
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsedPlugins() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(
+						Mockito.eq(httpRetrievalService), Mockito.anyString()))
+				.thenReturn(stats);
+
+		cache.get(httpRetrievalService, "a");
+		cache.get(httpRetrievalService, "b");
+		cache.get(httpRetrievalService, "a");
+		cache.get(httpRetrievalService, "c");
+		cache.get(httpRetrievalService, "a");
+		cache.get(httpRetrievalService, "b");
+
+		assertEquals(2, cache.size());
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveStatsResponse(httpRetrievalService, "a");
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveStatsResponse(httpRetrievalService, "b");
+	}
+
+	@Test
+	public void prefetchReloadsStatsExpiringWithinHorizon() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenReturn(stats);
+
+		StatsCache.Entry first = cache.prefetch(httpRetrievalService, "git",
+				1000);
+		assertSame(first, cache.prefetch(httpRetrievalService, "git", 1000));
+		assertSame(first, cache.get(httpRetrievalService, "git"));
+		cache.prefetch(httpRetrievalService, "git", 60000);
+
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	@Test
+	public void prefetchesDoNotCountAsViews() throws Exception {
+		cache = new StatsCache(jenkinsRetriever, 10);
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(
+						Mockito.eq(httpRetrievalService), Mockito.anyString()))
+				.thenReturn(stats);
+
+		cache.get(httpRetrievalService, "a");
+		cache.get(httpRetrievalService, "b");
+		cache.get(httpRetrievalService, "b");
+		cache.get(httpRetrievalService, "c");
+		cache.get(httpRetrievalService, "c");
+		cache.get(httpRetrievalService, "c");
+		cache.prefetch(httpRetrievalService, "d", 0);
+
+		assertEquals(Arrays.asList("c", "b"), cache.getMostViewed(2));
+		assertEquals(Arrays.asList("c", "b", "a"), cache.getMostViewed(10));
+	}
+
+	@Test
+	public void concurrentMissesShareOneLoad() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.when(
+				jenkinsRetriever.retrieveStatsResponse(httpRetrievalService,
+						"git")).thenAnswer(new Answer<String>() {
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				loading.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				return stats;
+			}
+		});
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Callable<StatsCache.Entry> get = new Callable<StatsCache.Entry>() {
+				public StatsCache.Entry call() {
+					return cache.get(httpRetrievalService, "git");
+				}
+			};
+			Future<StatsCache.Entry> first = executor.submit(get);
+			assertTrue(loading.await(5, TimeUnit.SECONDS));
+			Future<StatsCache.Entry> second = executor.submit(get);
+			Thread.sleep(100);
+			release.countDown();
+
+			assertSame(first.get(5, TimeUnit.SECONDS),
+					second.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveStatsResponse(httpRetrievalService, "git");
+	}
+
+	private String loadTextFile(String fileName) throws Exception {
+		InputStream stream = StatsCacheTest.class.getResourceAsStream(fileName);
+		try {
+			return IOUtils.toString(stream, "UTF-8");
+		} finally {
+			stream.close();
+		}
+	}
+}
@@ -2,13 +2,21 @@ package org.jenkinsci.confluence.plugins;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.SortedMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.json.simple.parser.ParseException;
@@ -73,6 +81,178 @@ public class StatsInfoParserTest {
 		System.out.println(url);
 	}
 
+	@Test
+	public void keepsNewestTwelveMonths() throws Exception {
+		StringBuilder json = new StringBuilder("{\"installations\": {");
+		// 14 months, not in order
+		int[] order = { 5, 13, 0, 8, 2, 11, 1, 9, 12, 3, 7, 4, 10, 6 };
+		for (int i = 0; i < order.length; i++) {
+			if (i > 0) {
+				json.append(", ");
+			}
+			json.append('"').append(order[i] * 1000L).append("\": ")
+					.append(order[i] + 100);
+		}
+		json.append("}}");
+		StatsInfoParser parser = new StatsInfoParser("my-plugin",
+				json.toString());
+
+		assertEquals(12, parser.getMonthCount());
+		for (int i = 0; i < 12; i++) {
+			assertEquals((i + 2) * 1000L, parser.getMonth(i));
+			assertEquals(i + 102, parser.getInstallations(i));
+		}
+		SortedMap<Date, Integer> sortedSeries = parser.getSortedSeries();
+		assertEquals(12, sortedSeries.size());
+		assertEquals(new Date(2000), sortedSeries.firstKey());
+		assertEquals(Integer.valueOf(113), sortedSeries.get(new Date(13000)));
+		assertSame(sortedSeries, parser.getSortedSeries());
+	}
+
+	@Test
+	public void noTimeseriesHasNoMonths() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser("my-plugin", "{}");
+		assertEquals(0, parser.getMonthCount());
+		assertTrue(parser.getSortedSeries().isEmpty());
+	}
+
+	@Test
+	public void configurableNumberOfMonths() throws Exception {
+		final String json = IOUtils.toString(StatsInfoParserTest.class
+				.getResourceAsStream("/subversion.stats.json"));
+		StatsInfoParser twelve = new StatsInfoParser("subversion", json);
+		StatsInfoParser twentyFour = new StatsInfoParser("subversion", json,
+				24);
+		StatsInfoParser all = new StatsInfoParser("subversion", json, 36);
+
+		assertEquals(12, twelve.getMonthCount());
+		assertEquals(24, twentyFour.getMonthCount());
+		assertEquals(32, all.getMonthCount());
+		for (int i = 1; i <= 12; i++) {
+			assertEquals(all.getMonth(32 - i), twelve.getMonth(12 - i));
+			assertEquals(all.getInstallations(32 - i),
+					twelve.getInstallations(12 - i));
+			assertEquals(all.getMonth(32 - i), twentyFour.getMonth(24 - i));
+		}
+		assertTrue(twentyFour.renderChartUrl(false).contains("%7C1,0,24&"));
+	}
+
+	@Test
+	public void skipsOtherProperties() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser(
+				"my-plugin",
+				"{\"name\": \"x\", \"other\": {\"1000\": [1, {\"a\": 2}]}, \"installations\": {\"2000\": 20, \"1000\": 10}, \"more\": [3]}");
+		assertEquals(2, parser.getMonthCount());
+		assertEquals(1000L, parser.getMonth(0));
+		assertEquals(10, parser.getInstallations(0));
+		assertEquals(20, parser.getInstallations(1));
+	}
+
+	@Test(expected = ParseException.class)
+	public void rejectsNonObjects() throws Exception {
+		new StatsInfoParser("my-plugin", "[1, 2]");
+	}
+
+	@Test(expected = ParseException.class)
+	public void rejectsNonNumericInstallations() throws Exception {
+		new StatsInfoParser("my-plugin",
+				"{\"installations\": {\"1000\": \"many\"}}");
+	}
+
+	@Test(expected = ParseException.class)
+	public void rejectsNonNumericMonths() throws Exception {
+		new StatsInfoParser("my-plugin",
+				"{\"installations\": {\"may\": 10}}");
+	}
+
+	@Test(expected = UnsupportedOperationException.class)
+	public void sortedSeriesIsUnmodifiable() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser("my-plugin",
+				"{\"installations\": {\"1000\": 10}}");
+		parser.getSortedSeries().clear();
+	}
+
+	@Test
+	public void maxInstallationsOfShownMonths() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser("my-plugin",
+				"{\"installations\": {\"1000\": 50, \"2000\": 20, \"3000\": 30}}",
+				2);
+		assertEquals(30, parser.getMaxInstallations());
+		assertEquals(0,
+				new StatsInfoParser("my-plugin", "{}").getMaxInstallations());
+	}
+
+	@Test
+	public void rendersConcurrently() throws Exception {
+		final StatsInfoParser parser = new StatsInfoParser("subversion",
+				IOUtils.toString(StatsInfoParserTest.class
+						.getResourceAsStream("/subversion.stats.json")));
+		final String expected = parser.renderChartUrl(true);
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() {
+						for (int j = 0; j < 500; j++) {
+							if (!expected.equals(parser.renderChartUrl(true))) {
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) {
+				assertTrue(result.get(30, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void chartUrlIsRenderedOnce() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser("my-plugin",
+				"{\"installations\": {\"1000\": 10}}");
+		assertSame(parser.renderChartUrl(true), parser.renderChartUrl(true));
+		assertSame(parser.renderChartUrl(true), parser.renderChartUrl(false));
+	}
+
+	@Test
+	public void encodesPluginName() throws Exception {
+		String url = new StatsInfoParser("my plugin \u00e9%|", "{}")
+				.renderChartUrl(true);
+		assertTrue(url, url.endsWith(
+				"&chtt=my%20plugin%20%C3%A9%25%7C+-+installations"));
+		assertTrue(url, url.startsWith(
+				"https://chart.googleapis.com/chart?cht=lc&chxl=1:%7C%7C2:%7CMonth&"));
+	}
+
+	@Test
+	public void svgChart() throws Exception {
+		StatsInfoParser parser = new StatsInfoParser("<my-plugin>",
+				IOUtils.toString(StatsInfoParserTest.class
+						.getResourceAsStream("/subversion.stats.json")));
+		String svg = parser.renderChartSvg();
+		assertTrue(svg, svg.startsWith("<svg "));
+		assertTrue(svg, svg.endsWith("</svg>"));
+		assertTrue(svg, svg.contains("&lt;my-plugin&gt; - installations"));
+		assertTrue(svg, svg.contains(">" + parser.getMaxInstallations()
+				+ "</text>"));
+		String points = svg.substring(svg.indexOf("points=\"") + 8);
+		points = points.substring(0, points.indexOf('"'));
+		assertEquals(12, points.split(" ").length);
+		assertSame(svg, parser.renderChartSvg());
+	}
+
+	@Test
+	public void svgChartWithoutMonths() throws Exception {
+		String svg = new StatsInfoParser("my-plugin", "{}").renderChartSvg();
+		assertTrue(svg, svg.endsWith("</svg>"));
+		assertTrue(svg, !svg.contains("polyline"));
+	}
+
 	private String getChartUrl(String statsJsonResource) throws Exception {
 		final InputStream stream = StatsInfoParserTest.class
 				.getResourceAsStream(statsJsonResource);
@@ -0,0 +1,357 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.jenkinsci.confluence.plugins.exception.PluginHttpException;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.atlassian.confluence.util.http.HttpRetrievalService;
+
+public class UpdateCenterCacheTest {
+
+	private static final Map<String, PluginInfo> NO_PLUGINS = Collections
+			.emptyMap();
+
+	private HttpRetrievalService httpRetrievalService = Mockito
+			.mock(HttpRetrievalService.class);
+
+	private JenkinsRetriever jenkinsRetriever = Mockito
+			.mock(JenkinsRetriever.class);
+
+	private final List<Runnable> backgroundTasks = new ArrayList<Runnable>();
+
+	private UpdateCenterCache cache;
+
+	@Before
+	public void buildUp() {
+		cache = new UpdateCenterCache(jenkinsRetriever, new Executor() {
+			public void execute(Runnable command) {
+				backgroundTasks.add(command);
+			}
+		});
+		cache.setTtl(60000);
+	}
+
+	private static Answer<UpdateCenterSnapshot> newSnapshot() {
+		return new Answer<UpdateCenterSnapshot>() {
+			public UpdateCenterSnapshot answer(InvocationOnMock invocation)
+					throws Throwable {
+				return new UpdateCenterSnapshot(NO_PLUGINS,
+						System.currentTimeMillis());
+			}
+		};
+	}
+
+	private void runBackgroundTasks() {
+		List<Runnable> tasks = new ArrayList<Runnable>(backgroundTasks);
+		backgroundTasks.clear();
+		for (Runnable task : tasks) {
+			task.run();
+		}
+	}
+
+	@Test
+	public void servesCachedSnapshotWhileFresh() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+		UpdateCenterSnapshot first = cache.get(httpRetrievalService);
+		UpdateCenterSnapshot second = cache.get(httpRetrievalService);
+		assertSame(first, second);
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void servesExpiredSnapshotWhileRefreshingInBackground()
+			throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+		cache.setTtl(0);
+		UpdateCenterSnapshot first = cache.get(httpRetrievalService);
+		assertTrue(cache.isStale());
+
+		assertSame(first, cache.get(httpRetrievalService));
+		assertSame(first, cache.get(httpRetrievalService));
+		assertEquals("only one refresh must be scheduled", 1,
+				backgroundTasks.size());
+
+		runBackgroundTasks();
+		UpdateCenterSnapshot second = cache.get(httpRetrievalService);
+		assertNotSame(first, second);
+		assertTrue(second.getId() > first.getId());
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void failedRefreshKeepsStaleSnapshot() throws Exception {
+		IOException outage = new IOException("update center down");
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot()).thenThrow(outage);
+		cache.setTtl(0);
+		UpdateCenterSnapshot first = cache.get(httpRetrievalService);
+		cache.get(httpRetrievalService);
+		runBackgroundTasks();
+
+		assertSame(outage, cache.getLastFailure());
+		assertSame(first, cache.get(httpRetrievalService));
+		assertTrue("a failed refresh must not be retried right away",
+				backgroundTasks.isEmpty());
+	}
+
+	@Test
+	public void concurrentMissesShareOneLoad() throws Exception {
+		final CountDownLatch loading = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(new Answer<UpdateCenterSnapshot>() {
+					public UpdateCenterSnapshot answer(
+							InvocationOnMock invocation) throws Throwable {
+						loading.countDown();
+						release.await();
+						return new UpdateCenterSnapshot(NO_PLUGINS,
+								System.currentTimeMillis());
+					}
+				});
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<UpdateCenterSnapshot>> results = new ArrayList<Future<UpdateCenterSnapshot>>();
+			for (int i = 0; i < 8; i++) {
+				results.add(executor.submit(new Callable<UpdateCenterSnapshot>() {
+					public UpdateCenterSnapshot call() throws Exception {
+						return cache.get(httpRetrievalService);
+					}
+				}));
+			}
+			loading.await(5, TimeUnit.SECONDS);
+			// give the other threads a chance to pile up on the running load
+			Thread.sleep(100);
+			release.countDown();
+
+			UpdateCenterSnapshot expected = results.get(0).get(5,
+					TimeUnit.SECONDS);
+			for (Future<UpdateCenterSnapshot> result : results) {
+				assertSame(expected, result.get(5, TimeUnit.SECONDS));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void failuresAreRetriedAfterRetryDelay() throws Exception {
+		cache.setRetryDelay(0);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenThrow(new PluginHttpException(503))
+				.thenAnswer(newSnapshot());
+		try {
+			cache.get(httpRetrievalService);
+			fail("the first load must fail");
+		} catch (PluginHttpException e) {
+			assertEquals(503, e.getStatusCode());
+		}
+		cache.get(httpRetrievalService);
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void failuresAreRethrownWithinRetryDelay() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenThrow(new PluginHttpException(503))
+				.thenAnswer(newSnapshot());
+		for (int i = 0; i < 3; i++) {
+			try {
+				cache.get(httpRetrievalService);
+				fail("the server is down");
+			} catch (PluginHttpException e) {
+				assertEquals(503, e.getStatusCode());
+			}
+		}
+		Mockito.verify(jenkinsRetriever, Mockito.times(1))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test(expected = IOException.class)
+	public void exceptionsArePropagated() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenThrow(new IOException());
+		cache.get(httpRetrievalService);
+	}
+
+	@Test
+	public void prefetchReloadsSnapshotExpiringWithinHorizon()
+			throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+		UpdateCenterSnapshot first = cache.prefetch(httpRetrievalService,
+				1000);
+		assertSame(first, cache.prefetch(httpRetrievalService, 1000));
+
+		UpdateCenterSnapshot second = cache.prefetch(httpRetrievalService,
+				60000);
+		assertNotSame(first, second);
+		assertSame(second, cache.get(httpRetrievalService));
+		assertTrue(backgroundTasks.isEmpty());
+		Mockito.verify(jenkinsRetriever, Mockito.times(2))
+				.retrieveUpdateCenter(Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void persistsLoadedSnapshots() throws Exception {
+		SnapshotStore store = Mockito.mock(SnapshotStore.class);
+		cache.setStore(store);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+		UpdateCenterSnapshot loaded = cache.get(httpRetrievalService);
+
+		// in the background
+		Mockito.verify(store, Mockito.never()).save(
+				Mockito.any(UpdateCenterSnapshot.class));
+		runBackgroundTasks();
+		Mockito.verify(store).save(loaded);
+	}
+
+	@Test
+	public void doesNotPersistRevalidatedSnapshots() throws Exception {
+		SnapshotStore store = Mockito.mock(SnapshotStore.class);
+		cache.setStore(store);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot()).thenAnswer(
+						new Answer<UpdateCenterSnapshot>() {
+							public UpdateCenterSnapshot answer(
+									InvocationOnMock invocation)
+									throws Throwable {
+								UpdateCenterSnapshot previous = (UpdateCenterSnapshot) invocation
+										.getArguments()[1];
+								return previous.revalidated(
+										System.currentTimeMillis(), null);
+							}
+						});
+		cache.get(httpRetrievalService);
+		cache.prefetch(httpRetrievalService, 60000);
+		runBackgroundTasks();
+
+		Mockito.verify(store, Mockito.times(1)).save(
+				Mockito.any(UpdateCenterSnapshot.class));
+	}
+
+	@Test
+	public void servesRestoredSnapshotWhileRefreshing() throws Exception {
+		UpdateCenterSnapshot persisted = new UpdateCenterSnapshot(NO_PLUGINS,
+				System.currentTimeMillis() - 120000);
+		SnapshotStore store = Mockito.mock(SnapshotStore.class);
+		Mockito.when(store.load()).thenReturn(persisted);
+		cache.setStore(store);
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+
+		assertTrue(cache.restore());
+		assertSame(persisted, cache.get(httpRetrievalService));
+		Mockito.verifyZeroInteractions(jenkinsRetriever);
+
+		runBackgroundTasks();
+		Mockito.verify(jenkinsRetriever).retrieveUpdateCenter(
+				httpRetrievalService, persisted);
+		assertNotSame(persisted, cache.get(httpRetrievalService));
+	}
+
+	@Test
+	public void doesNotRestoreOverLoadedSnapshot() throws Exception {
+		SnapshotStore store = Mockito.mock(SnapshotStore.class);
+		Mockito.when(store.load()).thenReturn(
+				new UpdateCenterSnapshot(NO_PLUGINS, 1L));
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class)))
+				.thenAnswer(newSnapshot());
+		UpdateCenterSnapshot loaded = cache.get(httpRetrievalService);
+		cache.setStore(store);
+
+		assertFalse(cache.restore());
+		assertSame(loaded, cache.get(httpRetrievalService));
+	}
+
+	@Test
+	public void restoresNothingWithoutStore() {
+		assertFalse(cache.restore());
+	}
+
+	@Test
+	public void indexesDependentsOfLoadedSnapshot() throws Exception {
+		Mockito.when(
+				jenkinsRetriever.retrieveUpdateCenter(
+						Mockito.eq(httpRetrievalService),
+						Mockito.any(UpdateCenterSnapshot.class))).thenAnswer(
+				newSnapshot());
+
+		UpdateCenterSnapshot snapshot = cache.get(httpRetrievalService);
+
+		assertTrue(snapshot.getDependencyGraph().isIndexed());
+	}
+}
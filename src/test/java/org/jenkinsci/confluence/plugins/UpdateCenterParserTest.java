@@ -0,0 +1,139 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+import org.junit.Test;
+
+public class UpdateCenterParserTest {
+
+	@Test
+	public void parsesSameValuesAsDocumentParser() throws Exception {
+		String json = loadUpdateCenter();
+		Map<String, PluginInfo> parsed = UpdateCenterParser
+				.parse(new ByteArrayInputStream(json.getBytes("UTF-8")));
+		assertSameValues((JSONObject) new JSONParser().parse(json), parsed);
+	}
+
+	@Test
+	public void skipsJsonpWrapper() throws Exception {
+		String json = loadUpdateCenter();
+		Map<String, PluginInfo> parsed = UpdateCenterParser
+				.parse(new StringReader("\n  updateCenter.post(\n" + json
+						+ "\n);\n"));
+		assertSameValues((JSONObject) new JSONParser().parse(json), parsed);
+	}
+
+	@Test
+	public void ignoresTrailingContent() throws Exception {
+		Map<String, PluginInfo> parsed = UpdateCenterParser
+				.parse(new StringReader(
+						"updateCenter.post({\"plugins\": {\"git\": {\"name\": \"git\"}}});\n// signature"));
+		assertEquals("git", parsed.get("git").getName());
+	}
+
+	@Test
+	public void missingValuesAreNull() throws Exception {
+		PluginInfo plugin = UpdateCenterParser.parse(
+				new StringReader("{\"plugins\": {\"git\": {}}}")).get("git");
+		assertNull(plugin.getName());
+		assertNull(plugin.getWiki());
+		assertTrue(plugin.getDependencies().isEmpty());
+		assertTrue(plugin.getDevelopers().isEmpty());
+	}
+
+	@Test
+	public void ignoresOtherProperties() throws Exception {
+		Map<String, PluginInfo> parsed = UpdateCenterParser
+				.parse(new StringReader(
+						"{\"core\": {\"plugins\": {\"fake\": {}}}, \"plugins\": {\"git\": {\"labels\": [{\"a\": 1}], \"name\": \"git\"}}, \"id\": \"default\"}"));
+		assertEquals(1, parsed.size());
+		assertEquals("git", parsed.get("git").getName());
+	}
+
+	@Test
+	public void parsesShortDocuments() throws Exception {
+		assertEquals(0, UpdateCenterParser.parse(new StringReader("{}"))
+				.size());
+	}
+
+	@Test(expected = ParseException.class)
+	public void rejectsNonObjects() throws Exception {
+		UpdateCenterParser.parse(new StringReader("[1, 2]"));
+	}
+
+	@Test(expected = ParseException.class)
+	public void rejectsEmptyDocuments() throws Exception {
+		UpdateCenterParser.parse(new StringReader("  "));
+	}
+
+	private void assertSameValues(JSONObject expected,
+			Map<String, PluginInfo> parsed) {
+		JSONObject plugins = (JSONObject) expected.get("plugins");
+		assertEquals(plugins.keySet(), parsed.keySet());
+		for (Object id : plugins.keySet()) {
+			JSONObject json = (JSONObject) plugins.get(id);
+			PluginInfo plugin = parsed.get(id);
+			assertEquals(json.get("name"), plugin.getName());
+			assertEquals(json.get("version"), plugin.getVersion());
+			assertEquals(json.get("previousVersion"),
+					plugin.getPreviousVersion());
+			assertEquals(json.get("buildDate"), plugin.getBuildDate());
+			assertEquals(json.get("releaseTimestamp"),
+					plugin.getReleaseTimestamp());
+			assertEquals(json.get("previousTimestamp"),
+					plugin.getPreviousTimestamp());
+			assertEquals(json.get("requiredCore"), plugin.getRequiredCore());
+			assertEquals(json.get("scm"), plugin.getScm());
+			assertEquals(json.get("wiki"), plugin.getWiki());
+
+			JSONArray dependencies = (JSONArray) json.get("dependencies");
+			assertEquals(dependencies.size(), plugin.getDependencies().size());
+			for (int i = 0; i < dependencies.size(); i++) {
+				JSONObject dependency = (JSONObject) dependencies.get(i);
+				PluginInfo.Dependency parsedDependency = plugin
+						.getDependencies().get(i);
+				assertEquals(dependency.get("name"), parsedDependency.getName());
+				assertEquals(dependency.get("version"),
+						parsedDependency.getVersion());
+				assertEquals(Boolean.parseBoolean(String.valueOf(dependency
+						.get("optional"))), parsedDependency.isOptional());
+			}
+
+			JSONArray developers = (JSONArray) json.get("developers");
+			assertEquals(developers.size(), plugin.getDevelopers().size());
+			for (int i = 0; i < developers.size(); i++) {
+				JSONObject developer = (JSONObject) developers.get(i);
+				PluginInfo.Developer parsedDeveloper = plugin.getDevelopers()
+						.get(i);
+				assertEquals(developer.get("name"), parsedDeveloper.getName());
+				assertEquals(developer.get("developerId"),
+						parsedDeveloper.getDeveloperId());
+				assertEquals(developer.get("email"), parsedDeveloper.getEmail());
+			}
+		}
+		assertFalse(parsed.isEmpty());
+	}
+
+	private String loadUpdateCenter() throws Exception {
+		InputStream stream = UpdateCenterParserTest.class
+				.getResourceAsStream("/update-center.json");
+		try {
+			return IOUtils.toString(stream, "UTF-8");
+		} finally {
+			stream.close();
+		}
+	}
+}
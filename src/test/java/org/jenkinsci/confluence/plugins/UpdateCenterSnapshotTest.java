@@ -0,0 +1,132 @@
+package org.jenkinsci.confluence.plugins;
+
+import static org.jenkinsci.confluence.plugins.DependencyGraphTest.dependency;
+import static org.jenkinsci.confluence.plugins.DependencyGraphTest.plugin;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class UpdateCenterSnapshotTest {
+
+	@Test
+	public void successorSharesUnchangedPlugins() {
+		UpdateCenterSnapshot first = snapshot(plugin("git"),
+				plugin("subversion"));
+		UpdateCenterSnapshot second = first.successor(
+				plugins(plugin("git"), release("subversion", "2.0")), 2L,
+				null);
+
+		assertSame(first.getPlugin("git"), second.getPlugin("git"));
+		assertNotSame(first.getPlugin("subversion"),
+				second.getPlugin("subversion"));
+		assertEquals("2.0", second.getPlugin("subversion").getVersion());
+		assertEquals(first.getId(), second.getChanges().getPreviousId());
+		assertTrue(second.getId() > first.getId());
+		assertEquals(2L, second.getTimestamp());
+		assertNull(first.getChanges());
+	}
+
+	@Test
+	public void successorKnowsAddedRemovedAndChangedPlugins() {
+		UpdateCenterSnapshot first = snapshot(plugin("git"),
+				plugin("subversion"), plugin("cvs"));
+		UpdateCenterSnapshot second = first.successor(
+				plugins(plugin("git"), release("subversion", "2.0"),
+						plugin("mercurial")), 2L, null);
+
+		assertEquals(set("subversion", "cvs", "mercurial"), second
+				.getChanges().getChanged());
+		assertFalse(second.getChanges().isAffected("git"));
+		assertEquals(set("git", "subversion", "mercurial"), second
+				.getPlugins().keySet());
+	}
+
+	@Test
+	public void changesAffectDependentsAndDependencies() {
+		UpdateCenterSnapshot first = snapshot(
+				plugin("git", dependency("git-client", "1.0", false)),
+				plugin("git-client", dependency("credentials", "1.0", false)),
+				plugin("credentials"),
+				plugin("git-parameter", dependency("git", "1.0", true)),
+				plugin("cvs"));
+		UpdateCenterSnapshot second = first.successor(
+				plugins(plugin("git", dependency("git-client", "1.0", false)),
+						new PluginInfo("git-client", "2.0", null, null, null,
+								null, null, null, null,
+								new PluginInfo.Dependency[] { dependency(
+										"ssh-credentials", "1.0", false) },
+								null), plugin("credentials"),
+						plugin("git-parameter", dependency("git", "1.0", true)),
+						plugin("cvs")), 2L, null);
+
+		assertEquals(set("git-client"), second.getChanges().getChanged());
+		// dependents show its version, its dependencies list it as dependent
+		assertEquals(set("git-client", "git", "git-parameter", "credentials",
+				"ssh-credentials"), second.getChanges().getAffected());
+	}
+
+	@Test
+	public void unchangedDocumentAffectsNothing() {
+		UpdateCenterSnapshot first = snapshot(plugin("git"));
+		UpdateCenterSnapshot second = first.successor(plugins(plugin("git")),
+				2L, null);
+
+		assertTrue(second.getChanges().getChanged().isEmpty());
+		assertTrue(second.getChanges().getAffected().isEmpty());
+	}
+
+	@Test
+	public void revalidatedSnapshotKeepsChanges() {
+		UpdateCenterSnapshot first = snapshot(plugin("git"));
+		UpdateCenterSnapshot second = first.successor(
+				plugins(release("git", "2.0")), 2L, null);
+
+		assertSame(second.getChanges(), second.revalidated(3L, null)
+				.getChanges());
+	}
+
+	@Test
+	public void pluginsAreValues() {
+		assertEquals(plugin("git", dependency("credentials", "1.0", false)),
+				plugin("git", dependency("credentials", "1.0", false)));
+		assertEquals(plugin("git").hashCode(), plugin("git").hashCode());
+		assertFalse(plugin("git", dependency("credentials", "1.0", false))
+				.equals(plugin("git", dependency("credentials", "1.0", true))));
+		assertFalse(plugin("git").equals(release("git", "2.0")));
+		assertFalse(new PluginInfo("git", "1.0", null, null, null, null, null,
+				null, null, null,
+				new PluginInfo.Developer[] { new PluginInfo.Developer("Kohsuke",
+						"kohsuke", null) }).equals(plugin("git")));
+	}
+
+	private static PluginInfo release(String name, String version) {
+		return new PluginInfo(name, version, null, null, null, null, null,
+				null, null, null, null);
+	}
+
+	private static UpdateCenterSnapshot snapshot(PluginInfo... plugins) {
+		return new UpdateCenterSnapshot(plugins(plugins), 1L);
+	}
+
+	private static Map<String, PluginInfo> plugins(PluginInfo... plugins) {
+		Map<String, PluginInfo> map = new HashMap<String, PluginInfo>();
+		for (PluginInfo plugin : plugins) {
+			map.put(plugin.getName(), plugin);
+		}
+		return map;
+	}
+
+	private static HashSet<String> set(String... values) {
+		return new HashSet<String>(Arrays.asList(values));
+	}
+}
@@ -0,0 +1,89 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsTest {
+
+	private final Metrics metrics = new Metrics();
+
+	private final MBeanServer server = MBeanServerFactory
+			.newMBeanServer();
+
+	@After
+	public void tearDown() {
+		metrics.unregister();
+	}
+
+	@Test
+	public void sameNameSameMetric() {
+		assertSame(metrics.timer("fetch"), metrics.timer("fetch"));
+		assertSame(metrics.counter("hits"), metrics.counter("hits"));
+	}
+
+	@Test
+	public void countsErrorsByType() {
+		metrics.error("execute", new IOException());
+		metrics.error("execute", new IOException());
+		metrics.error("execute", new IllegalStateException());
+		assertEquals(2, metrics.counter("execute.errors.IOException")
+				.getCount());
+		assertEquals(1,
+				metrics.counter("execute.errors.IllegalStateException")
+						.getCount());
+	}
+
+	@Test
+	public void exposesMetricsAsMBeans() throws Exception {
+		metrics.timer("fetch").record(2000000);
+		metrics.counter("hits").add(3);
+		metrics.register(server);
+
+		assertEquals(1L, server.getAttribute(
+				Metrics.objectName("Timer", "fetch"), "Count"));
+		assertEquals(2.0, server.getAttribute(
+				Metrics.objectName("Timer", "fetch"), "MaxMillis"));
+		assertEquals(3L, server.getAttribute(
+				Metrics.objectName("Counter", "hits"), "Count"));
+	}
+
+	@Test
+	public void exposesMetricsCreatedAfterRegistration() throws Exception {
+		metrics.register(server);
+		metrics.error("stats", new IOException());
+		assertEquals(1L, server.getAttribute(
+				Metrics.objectName("Counter", "stats.errors.IOException"),
+				"Count"));
+	}
+
+	@Test
+	public void unregistersMBeans() throws Exception {
+		metrics.counter("hits");
+		metrics.register(server);
+		assertTrue(server.isRegistered(Metrics.objectName("Counter", "hits")));
+		metrics.unregister();
+		assertFalse(server.isRegistered(Metrics.objectName("Counter", "hits")));
+	}
+
+	@Test
+	public void replacesLeftOverMBeans() throws Exception {
+		Metrics earlier = new Metrics();
+		earlier.counter("hits").increment();
+		earlier.register(server);
+
+		metrics.counter("hits");
+		metrics.register(server);
+		assertEquals(0L, server.getAttribute(
+				Metrics.objectName("Counter", "hits"), "Count"));
+	}
+}
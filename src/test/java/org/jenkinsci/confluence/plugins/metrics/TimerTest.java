@@ -0,0 +1,96 @@
+package org.jenkinsci.confluence.plugins.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TimerTest {
+
+	@Test
+	public void bucketsCoverAllValues() {
+		long[] values = { 0, 1, 3, 4, 5, 7, 8, 9, 15, 16, 1000, 123456789,
+				Long.MAX_VALUE };
+		for (long value : values) {
+			int bucket = Timer.bucket(value);
+			assertTrue(value + " <= upper bound",
+					value <= Timer.upperBound(bucket));
+			assertTrue(value + " > previous upper bound", bucket == 0
+					|| value > Timer.upperBound(bucket - 1));
+		}
+	}
+
+	@Test
+	public void bucketsAreWithinAQuarter() {
+		for (long value = 4; value < 100000; value += 7) {
+			long upperBound = Timer.upperBound(Timer.bucket(value));
+			assertTrue(value + " -> " + upperBound, upperBound < value * 1.25);
+		}
+	}
+
+	@Test
+	public void recordsCountTotalAndMax() {
+		Timer timer = new Timer();
+		timer.record(TimeUnit.MILLISECONDS.toNanos(1));
+		timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+		timer.record(-5);
+		assertEquals(3, timer.getCount());
+		assertEquals(4.0, timer.getTotalMillis(), 0.0001);
+		assertEquals(4.0 / 3, timer.getMeanMillis(), 0.0001);
+		assertEquals(3.0, timer.getMaxMillis(), 0.0001);
+	}
+
+	@Test
+	public void percentilesAreApproximated() {
+		Timer timer = new Timer();
+		for (int i = 1; i <= 1000; i++) {
+			timer.record(TimeUnit.MICROSECONDS.toNanos(i));
+		}
+		assertEquals(0.5, timer.getMedianMillis(), 0.5 * 0.25);
+		assertEquals(0.99, timer.get99thPercentileMillis(), 0.99 * 0.25);
+		// never above the max
+		assertEquals(1.0, timer.getQuantile(1) / 1000000d, 0.0001);
+	}
+
+	@Test
+	public void emptyTimerReportsZero() {
+		Timer timer = new Timer();
+		assertEquals(0, timer.getCount());
+		assertEquals(0, timer.getMeanMillis(), 0);
+		assertEquals(0, timer.get99thPercentileMillis(), 0);
+	}
+
+	@Test
+	public void recordsConcurrently() throws Exception {
+		final Timer timer = new Timer();
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[8];
+		for (int t = 0; t < threads.length; t++) {
+			final long nanos = t + 1;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < 10000; i++) {
+						timer.record(nanos);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(80000, timer.getCount());
+		assertEquals(360000 / 1000000d, timer.getTotalMillis(), 0.0000001);
+		assertEquals(8 / 1000000d, timer.getMaxMillis(), 0.0000001);
+	}
+}